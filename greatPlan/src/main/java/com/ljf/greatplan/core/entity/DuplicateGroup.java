@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 重复文件组对象<br/>
+ * 代表一组内容完全一致的文件。
+ * 由重复文件查找器在确认全量哈希一致后产出，推给页面展示。
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DuplicateGroup {
+    /**
+     * 文件大小（byte）
+     */
+    private Long size;
+
+    /**
+     * 全量内容哈希
+     */
+    private String hash;
+
+    /**
+     * 这组文件的路径集合
+     */
+    private List<String> paths;
+}
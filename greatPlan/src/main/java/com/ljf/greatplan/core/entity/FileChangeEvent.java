@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.entity;
+
+import com.ljf.greatplan.core.enums.FileChangeKind;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 文件变更事件对象<br/>
+ * 代表监听到的一次文件系统变更，由监听事件翻译过来，和具体用哪种监听方式无关。
+ * 溢出事件的路径就是溢出的目录本身。
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FileChangeEvent {
+    /**
+     * 变更类型
+     */
+    private FileChangeKind kind;
+
+    /**
+     * 所在目录（绝对路径）
+     */
+    private String dir;
+
+    /**
+     * 变更的文件或目录（绝对路径）
+     */
+    private String path;
+
+    /**
+     * 监听到的时刻（ms）
+     */
+    private long at;
+}
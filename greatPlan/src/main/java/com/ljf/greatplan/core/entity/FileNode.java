@@ -28,4 +28,9 @@ public class FileNode extends Node{
      * 文件类型
      */
     private String fileType;
+
+    /**
+     * 最后修改时间（ms）
+     */
+    private Long lastModified;
 }
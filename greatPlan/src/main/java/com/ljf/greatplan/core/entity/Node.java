@@ -7,6 +7,7 @@
 
 package com.ljf.greatplan.core.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.ljf.greatplan.core.enums.NodeType;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -19,6 +20,8 @@ import java.util.List;
  * 节点对象<br/>
  * 代表树中的任意一个节点。
  * 因为文件扫描与索引采用树状结构，文件与目录均抽象表示为节点。
+ * 点击热度不再靠定时任务逐个去减，而是记下（热度，结算时间），读取时按半衰期现算。
+ * 这样不管树多大，没人点的时候也不用花力气挨个衰减。
  */
 @Data
 @AllArgsConstructor
@@ -55,7 +58,120 @@ public class Node {
     private List<String> childNode = new ArrayList<>();
 
     /**
-     * 点击热度
+     * 文件身份标识（改名和同盘移动都不变，用来认出移动），拿不到为null
      */
-    private Integer clickHeat = 100;
+    @JsonIgnore
+    private String fileKey;
+
+    /**
+     * 热度基准值（上次结算时的热度，实际热度在读取时按半衰期现算）
+     */
+    @JsonIgnore
+    private double heatValue = 100;
+
+    /**
+     * 热度结算时间（ms）
+     */
+    @JsonIgnore
+    private long heatUpdatedAt = System.currentTimeMillis();
+
+    /**
+     * 热度半衰期（ms），由节点树按配置统一设置
+     */
+    private static volatile long heatHalfLife = 15000;
+
+    /**
+     * 设置热度半衰期
+     * @param halfLife 半衰期（ms）
+     */
+    public static void setHeatHalfLife(long halfLife) {
+        heatHalfLife = halfLife;
+    }
+
+    /**
+     * 获取点击热度<br/>
+     * 按当前时间现算衰减后的热度，取整，不足1就是0（冷了）。
+     * @return 点击热度
+     */
+    public Integer getClickHeat() {
+        return (int) heatAt(System.currentTimeMillis());
+    }
+
+    /**
+     * 设置点击热度<br/>
+     * 从现在开始重新衰减。
+     * @param clickHeat 点击热度
+     */
+    public synchronized void setClickHeat(Integer clickHeat) {
+        this.heatValue = clickHeat;
+        this.heatUpdatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 计算指定时刻的热度<br/>
+     * 基准值和结算时间是一对，要在写它们的同一把锁里一起读，不然可能读到新值配旧时间，衰减算多了。
+     * @param now 时刻（ms）
+     * @return 衰减后的热度
+     */
+    public synchronized double heatAt(long now) {
+        long elapsed = Math.max(0, now - heatUpdatedAt);
+        return heatValue * Math.pow(0.5, (double) elapsed / heatHalfLife);
+    }
+
+    /**
+     * 计算预计冷掉的时刻<br/>
+     * 热度衰减到不足1的时刻，给冷却时间轮排期用。
+     * @return 时刻（ms）
+     */
+    public synchronized long coldAt() {
+        if (heatValue < 1) {
+            return heatUpdatedAt;
+        }
+        // value * 0.5^(t / halfLife) = 1  =>  t = halfLife * log2(value)
+        return heatUpdatedAt + (long) Math.ceil(heatHalfLife * (Math.log(heatValue) / Math.log(2)));
+    }
+
+    /**
+     * 估算占用内存（byte）<br/>
+     * 对象头加几个字段的引用，再加上字符串字符和在父节点子节点集里占的那一格。
+     * 不算子节点集本身，保证加入和删除时估出来的一样多。
+     * @return 估算值
+     */
+    public long estimateBytes() {
+        return 120
+                + 2L * (id == null ? 0 : id.length())
+                + 2L * (name == null ? 0 : name.length())
+                + 2L * (path == null ? 0 : path.length())
+                + 2L * (fileKey == null ? 0 : fileKey.length())
+                + 48;
+    }
+
+    /**
+     * 加热<br/>
+     * 先把之前的衰减结算掉，再加上增量，结算时间挪到现在。
+     * @param delta 热度增量
+     */
+    public synchronized void heatUp(double delta) {
+        long now = System.currentTimeMillis();
+        this.heatValue = heatAt(now) + delta;
+        this.heatUpdatedAt = now;
+    }
+
+    /**
+     * 恢复热度<br/>
+     * 从热度日志里取回的热度，衰减到现在比当前的高才用，只会让节点更热，不会更冷。
+     * @param value 热度基准值
+     * @param at 结算时间（ms）
+     * @return 是否用上了
+     */
+    public synchronized boolean restoreHeat(double value, long at) {
+        long now = System.currentTimeMillis();
+        double restored = value * Math.pow(0.5, (double) Math.max(0, now - at) / heatHalfLife);
+        if (restored <= heatAt(now)) {
+            return false;
+        }
+        this.heatValue = value;
+        this.heatUpdatedAt = at;
+        return true;
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.entity;
+
+import com.ljf.greatplan.core.enums.NodeChangeCause;
+import com.ljf.greatplan.core.enums.NodeChangeKind;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 节点变更记录对象<br/>
+ * 代表节点树上的一次变更，由节点树在变更完成后发给所有节点变更监听者。
+ * 整个子树的移除只算一次变更，一条记录里带着所有被移除的节点。
+ * 带着起因：节点树变了不一定是磁盘上变了（扫描展开，剪枝折叠，溢出读回也会加减节点）。
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class NodeChange {
+    /**
+     * 变更类型
+     */
+    private NodeChangeKind kind;
+
+    /**
+     * 子节点集发生变化的（留在树里的）父节点ID，根节点为null
+     */
+    private String parentId;
+
+    /**
+     * 涉及的节点
+     */
+    private List<Node> nodes;
+
+    /**
+     * 变更时刻（ms）
+     */
+    private long at;
+
+    /**
+     * 起因
+     */
+    private NodeChangeCause cause;
+}
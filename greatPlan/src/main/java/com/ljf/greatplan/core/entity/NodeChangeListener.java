@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.entity;
+
+/**
+ * 节点变更监听者<br/>
+ * 向节点树注册后，节点树每完成一次变更就会收到一条变更记录。
+ * 在做变更的线程里同步调用，不要在里面干重活。
+ */
+public interface NodeChangeListener {
+    /**
+     * 节点树发生变更
+     * @param change 变更记录
+     */
+    void onNodeChange(NodeChange change);
+}
@@ -7,22 +7,39 @@
 
 package com.ljf.greatplan.core.entity;
 
+import com.ljf.greatplan.core.enums.BusEventType;
+import com.ljf.greatplan.core.enums.NodeChangeCause;
+import com.ljf.greatplan.core.enums.NodeChangeKind;
+import com.ljf.greatplan.core.enums.ScanStatus;
+import com.ljf.greatplan.general.timeer.ColdTimingWheel;
+import com.ljf.greatplan.general.tools.generalTools.HeatJournal;
+import com.ljf.greatplan.general.tools.generalTools.RingEventBus;
+import jakarta.annotation.PostConstruct;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 /**
  * 节点树对象<br/>
  * 代表所有节点的集合状态，管理所有节点。
  * 树为单例树，让容器代管。
+ * 节点加入时会按预计冷掉的时刻挂进冷却时间轮，冷遗忘只需要看到期的节点。
+ * 点击热度会记进热度日志，节点（重启后或被剪掉后）重新加入时从日志里取回。
+ * 每次加入或移除都会发一条变更记录给注册过的节点变更监听者，同时发到事件总线上给不需要同步处理的消费者。
+ * 变更记录带着起因，由调用方在自己的线程上用withCause圈定（默认是扫描展开）。
+ * 节点按文件身份标识（inode之类）另建一份索引，改名或移动时能找回原来的子树，整个换个位置挂过去。
  */
 @Component
-@NoArgsConstructor
+@Slf4j
 @Getter
 public class NodeTree {
     /**
@@ -30,12 +47,119 @@ public class NodeTree {
      */
     private final Map<String, Node> tree = new ConcurrentHashMap<>();
 
+    /**
+     * 身份标识索引（文件身份标识， 节点ID）
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, String> fileKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 热度半衰期（ms）
+     */
+    @Value("${great-plan.node-attenuation.half-life}")
+    private Long heatHalfLife;
+
+    /**
+     * 冷却时间轮刻度（ms），和冷遗忘的清理间隔一致
+     */
+    @Value("${great-plan.node-attenuation.speed}")
+    private Long tickDuration;
+
+    /**
+     * 冷却时间轮
+     */
+    private ColdTimingWheel coldWheel = new ColdTimingWheel(1000, 512);
+
+    /**
+     * 估算占用内存（byte），随节点加入和删除增减
+     */
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    /**
+     * 热度日志
+     */
+    @Getter(AccessLevel.NONE)
+    private final HeatJournal heatJournal;
+
+    /**
+     * 事件总线
+     */
+    @Getter(AccessLevel.NONE)
+    private final RingEventBus eventBus;
+
+    /**
+     * 节点变更监听者
+     */
+    @Getter(AccessLevel.NONE)
+    private final List<NodeChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 当前线程上的变更起因
+     */
+    @Getter(AccessLevel.NONE)
+    private final ThreadLocal<NodeChangeCause> cause = ThreadLocal.withInitial(() -> NodeChangeCause.SCAN);
+
+    /**
+     * 构造器
+     * @param heatJournal 热度日志
+     * @param eventBus 事件总线
+     */
+    public NodeTree(HeatJournal heatJournal, RingEventBus eventBus) {
+        this.heatJournal = heatJournal;
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * 初始化<br/>
+     * 把配置的半衰期交给节点，热度都是节点读取时自己现算的。
+     */
+    @PostConstruct
+    public void init() {
+        Node.setHeatHalfLife(heatHalfLife);
+        coldWheel = new ColdTimingWheel(tickDuration, 512);
+    }
+
+    /**
+     * 圈定变更起因<br/>
+     * 在当前线程上执行操作，这期间节点树发出的变更记录都算这个起因，结束后恢复原来的。
+     * @param cause 起因
+     * @param action 操作
+     * @param <T> 结果类型
+     * @return 操作的结果
+     */
+    public <T> T withCause(NodeChangeCause cause, Supplier<T> action) {
+        NodeChangeCause previous = this.cause.get();
+        this.cause.set(cause);
+        try {
+            return action.get();
+        } finally {
+            this.cause.set(previous);
+        }
+    }
+
     /**
      * 添加节点
      * @param node 新节点对象
      */
     public void addNode(Node node) {
-        tree.put(node.getId(), node);
+        // 重新发现的节点，把日志里的热度取回来
+        HeatJournal.HeatRecord heat = heatJournal.lookup(node.getPath());
+        if (heat != null) {
+            node.restoreHeat(heat.h(), heat.t());
+        }
+        synchronized (this) {
+            Node old = tree.put(node.getId(), node);
+            estimatedBytes.addAndGet(node.estimateBytes() - (old == null ? 0 : old.estimateBytes()));
+            if (old != null && old.getFileKey() != null) {
+                fileKeys.remove(old.getFileKey(), old.getId());
+            }
+            if (node.getFileKey() != null) {
+                fileKeys.put(node.getFileKey(), node.getId());
+            }
+            // 按预计冷掉的时刻排期
+            coldWheel.schedule(node.getId(), node.coldAt());
+        }
+        notifyListeners(new NodeChange(NodeChangeKind.ADDED, node.getParentNode(), List.of(node), System.currentTimeMillis(), cause.get()));
     }
 
     /**
@@ -43,26 +167,295 @@ public class NodeTree {
      * @param nodes 树形式的一组节点
      */
     public void addNodes(Map<String, Node> nodes) {
-        tree.putAll(nodes);
+        for (Node node : nodes.values()) {
+            addNode(node);
+        }
     }
 
     /**
-     * 删除节点
+     * 删除节点<br/>
+     * 连同整个子树一起删，不再只删自己留下一堆够不着的孤儿。
      * @param node 要死的节点对象
      */
     public void delNode(Node node) {
-        // 看看这个节点是否有父节点
-        String parentNodeId = node.getParentNode();
-        if (parentNodeId != null) {
-            // 若有，要在父节点的子节点集中也删除这个节点
-            // 取得父节点
-            Node parentNode = getNodeById(parentNodeId);
-            // 在父节点的子节点集中删除这个节点
-            parentNode.getChildNode().remove(node.getId());
-            parentNode.setChildNode(parentNode.getChildNode());
+        removeSubtree(node.getId());
+    }
+
+    /**
+     * 删除子树<br/>
+     * 一把锁里做完：从父节点的子节点集里摘掉，子树里每个节点都从树、估算内存、冷却时间轮里清掉。
+     * 做完后只发一条变更记录，带着所有被删的节点。
+     * @param rootId 子树根节点ID
+     * @return 删掉的节点数
+     */
+    public int removeSubtree(String rootId) {
+        NodeChange change;
+        synchronized (this) {
+            Node root = tree.get(rootId);
+            if (root == null) {
+                return 0;
+            }
+            // 从父节点的子节点集中摘掉
+            String parentId = root.getParentNode();
+            Node parent = parentId == null ? null : tree.get(parentId);
+            if (parent != null) {
+                parent.getChildNode().remove(rootId);
+            }
+            change = new NodeChange(NodeChangeKind.REMOVED, parentId, detach(root, true), System.currentTimeMillis(), cause.get());
+        }
+        notifyListeners(change);
+        return change.getNodes().size();
+    }
+
+    /**
+     * 折叠目录<br/>
+     * 删掉目录下的整个子树，目录本身留着当占位，标记为部分扫描，下次点开时重新扫。
+     * 同样只发一条变更记录。
+     * @param dirId 目录节点ID
+     * @return 删掉的节点数
+     */
+    public int collapse(String dirId) {
+        NodeChange change;
+        synchronized (this) {
+            Node dir = tree.get(dirId);
+            if (dir == null) {
+                return 0;
+            }
+            change = new NodeChange(NodeChangeKind.REMOVED, dirId, detach(dir, false), System.currentTimeMillis(), cause.get());
+            if (dir instanceof DirectoryNode directoryNode) {
+                directoryNode.setScanStatus(ScanStatus.PARTIAL_SCAN);
+            }
         }
-        // 最后删除自己在节点树中的存在
-        tree.remove(node.getId());
+        if (!change.getNodes().isEmpty()) {
+            notifyListeners(change);
+        }
+        return change.getNodes().size();
+    }
+
+    /**
+     * 搬移子树<br/>
+     * 目录或文件被改名/移动时用：不删不扫，把原来的子树原样换个位置挂过去，热度和扫描状态都留着。
+     * 节点ID跟着路径走，所以子树里每个节点的路径和ID都要换新的，父子引用也一起换。
+     * 新位置上已经有节点（比如移动被认出来之前已经扫过了）就先把它整个删掉。
+     * 做完后先发移除（旧ID和旧路径），再发加入（新的），监听者不用认识“移动”这回事。
+     * @param rootId 子树根节点ID
+     * @param newParentId 新的父节点ID
+     * @param newPath 子树根的新路径
+     * @param idOf 按路径生成节点ID
+     * @return 搬过去的节点数
+     */
+    public int relocate(String rootId, String newParentId, String newPath, UnaryOperator<String> idOf) {
+        List<NodeChange> changes = new ArrayList<>();
+        int moved;
+        synchronized (this) {
+            Node root = tree.get(rootId);
+            if (root == null) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            String oldPath = root.getPath();
+            String newRootId = idOf.apply(newPath);
+
+            // 新位置上原有的节点
+            Node occupant = tree.get(newRootId);
+            if (occupant != null && occupant != root) {
+                Node occupantParent = occupant.getParentNode() == null ? null : tree.get(occupant.getParentNode());
+                if (occupantParent != null) {
+                    occupantParent.getChildNode().remove(newRootId);
+                }
+                changes.add(new NodeChange(NodeChangeKind.REMOVED, occupant.getParentNode(), detach(occupant, true), now, cause.get()));
+            }
+
+            // 从原来的父节点摘下
+            String oldParentId = root.getParentNode();
+            Node oldParent = oldParentId == null ? null : tree.get(oldParentId);
+            if (oldParent != null) {
+                oldParent.getChildNode().remove(rootId);
+            }
+
+            // 先把子树收齐，算好每个节点的新ID（旧ID -> 新ID），再动节点
+            List<Node> nodes = new ArrayList<>();
+            Map<String, String> ids = new HashMap<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                nodes.add(node);
+                ids.put(node.getId(), idOf.apply(newPath + node.getPath().substring(oldPath.length())));
+                for (String childId : node.getChildNode()) {
+                    Node child = tree.get(childId);
+                    if (child != null) {
+                        stack.push(child);
+                    }
+                }
+            }
+
+            List<Node> removed = new ArrayList<>(nodes.size());
+            for (Node node : nodes) {
+                removed.add(stubOf(node));
+                if (tree.remove(node.getId(), node)) {
+                    estimatedBytes.addAndGet(-node.estimateBytes());
+                }
+                coldWheel.cancel(node.getId());
+                if (node.getFileKey() != null) {
+                    fileKeys.remove(node.getFileKey(), node.getId());
+                }
+            }
+            for (Node node : nodes) {
+                String parentId = node == root ? newParentId : ids.get(node.getParentNode());
+                String nodeOldPath = node.getPath();
+                node.setPath(newPath + nodeOldPath.substring(oldPath.length()));
+                // 热度日志按路径记的，跟着搬
+                heatJournal.move(nodeOldPath, node.getPath());
+                node.setId(ids.get(node.getId()));
+                node.setParentNode(parentId);
+                node.getChildNode().replaceAll(childId -> ids.getOrDefault(childId, childId));
+                tree.put(node.getId(), node);
+                estimatedBytes.addAndGet(node.estimateBytes());
+                coldWheel.schedule(node.getId(), node.coldAt());
+                if (node.getFileKey() != null) {
+                    fileKeys.put(node.getFileKey(), node.getId());
+                }
+            }
+
+            // 挂到新的父节点下
+            Node newParent = newParentId == null ? null : tree.get(newParentId);
+            if (newParent != null && !newParent.getChildNode().contains(newRootId)) {
+                newParent.getChildNode().add(newRootId);
+            }
+            changes.add(new NodeChange(NodeChangeKind.REMOVED, oldParentId, removed, now, cause.get()));
+            changes.add(new NodeChange(NodeChangeKind.ADDED, newParentId, nodes, now, cause.get()));
+            moved = nodes.size();
+        }
+        for (NodeChange change : changes) {
+            notifyListeners(change);
+        }
+        return moved;
+    }
+
+    /**
+     * 更新节点的身份标识<br/>
+     * 文件被原地替换（比如编辑器先写临时文件再改名盖过来）时，节点还是那个节点，身份标识换成新的。
+     * @param node 节点
+     * @param fileKey 新的身份标识
+     */
+    public synchronized void updateFileKey(Node node, String fileKey) {
+        if (Objects.equals(node.getFileKey(), fileKey) || tree.get(node.getId()) != node) {
+            return;
+        }
+        if (node.getFileKey() != null) {
+            fileKeys.remove(node.getFileKey(), node.getId());
+        }
+        estimatedBytes.addAndGet(-node.estimateBytes());
+        node.setFileKey(fileKey);
+        estimatedBytes.addAndGet(node.estimateBytes());
+        if (fileKey != null) {
+            fileKeys.put(fileKey, node.getId());
+        }
+    }
+
+    /**
+     * 按文件身份标识获取节点对象
+     * @param fileKey 文件身份标识
+     * @return 节点对象（没有为null）
+     */
+    public Node getNodeByFileKey(String fileKey) {
+        String id = fileKeys.get(fileKey);
+        return id == null ? null : tree.get(id);
+    }
+
+    /**
+     * 注册节点变更监听者
+     * @param listener 监听者
+     */
+    public void addChangeListener(NodeChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * 注销节点变更监听者
+     * @param listener 监听者
+     */
+    public void removeChangeListener(NodeChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * 摘下子树<br/>
+     * 显式栈遍历（不怕目录太深），把子树里的节点逐个从树和各个索引里清掉，子节点集也清空，不留引用。
+     * 要在持有节点树锁时调用。
+     * @param root 子树根节点
+     * @param includeRoot 是否连根一起摘
+     * @return 被摘下的节点
+     */
+    private List<Node> detach(Node root, boolean includeRoot) {
+        List<Node> removed = new ArrayList<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            for (String childId : node.getChildNode()) {
+                Node child = tree.get(childId);
+                if (child != null) {
+                    stack.push(child);
+                }
+            }
+            node.getChildNode().clear();
+            if (node == root && !includeRoot) {
+                continue;
+            }
+            if (tree.remove(node.getId(), node)) {
+                estimatedBytes.addAndGet(-node.estimateBytes());
+            }
+            coldWheel.cancel(node.getId());
+            if (node.getFileKey() != null) {
+                fileKeys.remove(node.getFileKey(), node.getId());
+            }
+            removed.add(node);
+        }
+        return removed;
+    }
+
+    /**
+     * 做一个节点的替身<br/>
+     * 只带ID，名字，类型，路径，父节点，搬移时给移除变更用（真的节点马上要换成新的ID和路径了）。
+     * @param node 节点
+     * @return 替身
+     */
+    private Node stubOf(Node node) {
+        Node stub = node instanceof DirectoryNode ? new DirectoryNode() : new FileNode();
+        stub.setId(node.getId());
+        stub.setName(node.getName());
+        stub.setNodeType(node.getNodeType());
+        stub.setPath(node.getPath());
+        stub.setParentNode(node.getParentNode());
+        return stub;
+    }
+
+    /**
+     * 通知所有节点变更监听者<br/>
+     * 在锁外调用，监听者里再动节点树也不会死锁。
+     * 同步的监听者都处理完后再发到事件总线上。
+     * @param change 变更记录
+     */
+    private void notifyListeners(NodeChange change) {
+        for (NodeChangeListener listener : changeListeners) {
+            try {
+                listener.onNodeChange(change);
+            } catch (RuntimeException e) {
+                // 一个监听者出错不能影响其它监听者，也不能把节点树的操作搞失败
+                log.error("__________节点变更监听者处理失败", e);
+            }
+        }
+        eventBus.publish(BusEventType.NODE_CHANGE, change);
+    }
+
+    /**
+     * 获取估算占用内存
+     * @return 估算值（byte）
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
     }
 
     /**
@@ -75,11 +468,43 @@ public class NodeTree {
     }
 
     /**
-     * 热度增长
+     * 热度增长<br/>
+     * 只动这一个节点，O(1)。
      * @param nodeId 目标节点Id
      */
     public void popularityIncreases(String nodeId) {
-        tree.get(nodeId).setClickHeat(tree.get(nodeId).getClickHeat() + 1);
+        Node node = tree.get(nodeId);
+        if (node != null) {
+            // 加热和取结算值要在一把锁里，免得并发点击时记下的不是同一次的结算
+            synchronized (node) {
+                node.heatUp(1);
+                // 只进队列，不等落盘
+                heatJournal.record(node.getPath(), node.getHeatValue(), node.getHeatUpdatedAt());
+            }
+        }
+    }
+
+    /**
+     * 取出到期的冷节点<br/>
+     * 只看冷却时间轮里到期的节点。
+     * 到期了但期间被点过（热度又涨上去了）的，按新的冷掉时刻重新挂回去。
+     * @param now 当前时刻（ms）
+     * @return 已经冷掉的节点集合
+     */
+    public List<Node> pollColdNodes(long now) {
+        List<Node> nodes = new ArrayList<>();
+        for (String id : coldWheel.advance(now)) {
+            Node node = tree.get(id);
+            // 已经不在树里了
+            if (node == null) continue;
+            long coldAt = node.coldAt();
+            if (coldAt > now) {
+                coldWheel.schedule(id, coldAt);
+            } else {
+                nodes.add(node);
+            }
+        }
+        return nodes;
     }
 
     /**
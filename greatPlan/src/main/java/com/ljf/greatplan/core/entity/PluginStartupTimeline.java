@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.entity;
+
+import com.ljf.greatplan.core.enums.PluginStartupStatus;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 插件启动时间线对象<br/>
+ * 一个插件在启动编排里的进度和各阶段的时刻。
+ * 时刻都是相对编排开始的毫秒数，还没到那一步的为-1。
+ */
+@Data
+@NoArgsConstructor
+public class PluginStartupTimeline {
+    /**
+     * 插件名
+     */
+    private String pluginName;
+
+    /**
+     * 状态
+     */
+    private PluginStartupStatus status = PluginStartupStatus.PENDING;
+
+    /**
+     * 开始编译
+     */
+    private Long compileStartMs = -1L;
+
+    /**
+     * 编译完成
+     */
+    private Long compileEndMs = -1L;
+
+    /**
+     * 开始挂载
+     */
+    private Long mountStartMs = -1L;
+
+    /**
+     * 挂载完成
+     */
+    private Long mountEndMs = -1L;
+
+    /**
+     * 编出来的类数
+     */
+    private Integer classCount = 0;
+
+    /**
+     * 失败原因
+     */
+    private String error;
+
+    /**
+     * 构造器
+     * @param pluginName 插件名
+     */
+    public PluginStartupTimeline(String pluginName) {
+        this.pluginName = pluginName;
+    }
+}
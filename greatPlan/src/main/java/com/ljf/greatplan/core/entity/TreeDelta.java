@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.entity;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.ljf.greatplan.core.enums.DeltaKind;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 推送增量对象<br/>
+ * 推给页面的一条变化，页面拿着它直接改自己的节点树，不用再把整棵树拉一遍。
+ * 只带这种变化用得上的字段，用不上的不输出。
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TreeDelta {
+    /**
+     * 序号（全局递增，页面可以凭它看出有没有漏）
+     */
+    private long seq;
+
+    /**
+     * 增量类型
+     */
+    private DeltaKind kind;
+
+    /**
+     * 子节点集发生变化的父节点ID
+     */
+    private String parentId;
+
+    /**
+     * 加入的节点
+     */
+    private List<Node> nodes;
+
+    /**
+     * 移除的节点ID，或热度变化的节点ID
+     */
+    private List<String> ids;
+
+    /**
+     * 变化后的热度
+     */
+    private Integer heat;
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 总线事件类型枚举<br/>
+ * 定义事件总线上跑的是监听到的文件变更，节点树变更，热度变化，还是插件注册表变化。
+ */
+public enum BusEventType {
+    FILE_CHANGES("文件变更"),
+    NODE_CHANGE("节点树变更"),
+    HEAT_CHANGE("热度变化"),
+    PLUGINS_CHANGE("插件注册表变化");
+
+    private final String description;
+
+    BusEventType(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
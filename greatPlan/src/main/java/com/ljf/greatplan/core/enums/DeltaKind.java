@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 推送增量类型枚举<br/>
+ * 定义推给页面的一条增量是节点加入，节点移除，热度变化，还是插件注册表变了。
+ */
+public enum DeltaKind {
+    ADDED("加入"),
+    REMOVED("移除"),
+    HEAT("热度"),
+    PLUGINS("插件");
+
+    private final String description;
+
+    DeltaKind(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
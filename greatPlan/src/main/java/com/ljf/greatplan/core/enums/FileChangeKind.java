@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 文件变更类型枚举<br/>
+ * 定义监听到的文件系统变更是新建，删除，修改，还是事件太多溢出了（不知道具体变了啥）。
+ */
+public enum FileChangeKind {
+    CREATED("新建"),
+    DELETED("删除"),
+    MODIFIED("修改"),
+    OVERFLOW("溢出");
+
+    private final String description;
+
+    FileChangeKind(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 哈希算法枚举<br/>
+ * 定义内容哈希缓存支持的算法。
+ * 快速哈希只拿来判断文件变没变，要靠哈希认定内容一致的场合用加密哈希。
+ */
+public enum HashAlgorithm {
+    XXH32("快速哈希", null),
+    MD5("MD5", "MD5"),
+    SHA_256("SHA-256", "SHA-256");
+
+    private final String description;
+
+    /**
+     * JDK摘要算法名（非加密哈希为null）
+     */
+    private final String digestName;
+
+    HashAlgorithm(String description, String digestName) {
+        this.description = description;
+        this.digestName = digestName;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String getDigestName() {
+        return digestName;
+    }
+}
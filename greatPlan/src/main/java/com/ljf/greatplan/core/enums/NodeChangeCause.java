@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 节点变更起因枚举<br/>
+ * 节点树变了不一定是磁盘上变了：扫描展开，冷却剪枝，内存折叠，溢出读回都会加减节点。
+ * 只有文件系统起因的才是磁盘上真的发生了变化。
+ */
+public enum NodeChangeCause {
+    FILESYSTEM("文件系统变化"),
+    SCAN("扫描展开"),
+    PRUNE("剪枝折叠"),
+    SPILL("溢出读回");
+
+    private final String description;
+
+    NodeChangeCause(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 节点变更类型枚举<br/>
+ * 定义节点树发生的变更是加入还是移除。
+ */
+public enum NodeChangeKind {
+    ADDED("加入"),
+    REMOVED("移除");
+
+    private final String description;
+
+    NodeChangeKind(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 插件启动状态枚举<br/>
+ * 启动时插件编排器给每个插件记的进度。
+ */
+public enum PluginStartupStatus {
+    PENDING("等待"),
+    BUILT_IN("主程序自带"),
+    EMPTY("没有源码"),
+    COMPILING("编译中"),
+    MOUNTING("挂载中"),
+    MOUNTED("已挂载"),
+    SKIPPED("已被挂载"),
+    FAILED("失败");
+
+    private final String description;
+
+    PluginStartupStatus(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.enums;
+
+/**
+ * 监听后端类型枚举<br/>
+ * 定义目录由系统自带的WatchService监听，还是由快照轮询器定时对比。
+ */
+public enum WatcherBackendType {
+    NIO("系统监听"),
+    POLLING("快照轮询");
+
+    private final String description;
+
+    WatcherBackendType(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.core.service;
+
+import com.ljf.greatplan.core.entity.*;
+import com.ljf.greatplan.core.enums.DeltaKind;
+import com.ljf.greatplan.core.enums.NodeChangeKind;
+import com.ljf.greatplan.general.tools.generalTools.RingEventBus;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 变更推送服务<br/>
+ * 代替页面每秒拉一遍整棵树和插件注册表的轮询。
+ * 节点树和插件注册表一有变化就做成增量，放进每个页面各自的缓冲里，攒一小会儿再一起推过去（SSE）。
+ * 每个页面的缓冲有上限，页面跟不上（缓冲满了）就把缓冲丢掉，改推一个重新同步事件，让页面自己整个拉一遍。
+ * 没有变化就什么都不推，闲着的页面不花任何开销。
+ * 变化从事件总线上收（消费者push），做增量的活不占用改节点树的线程。
+ * 新增的节点在做增量时就拷一份（连子节点ID集），推送时节点树还在变，序列化的不能是树里的活节点。
+ */
+@Service
+@Slf4j
+public class ChangePushService {
+    /**
+     * 页面连接<br/>
+     * 内部类，一个页面一个，缓冲和落后标记都要在它自己的锁里改。
+     */
+    private static class Client {
+        /**
+         * SSE推送器
+         */
+        private final SseEmitter emitter = new SseEmitter(0L);
+
+        /**
+         * 待推送的增量
+         */
+        private List<TreeDelta> buffer = new ArrayList<>();
+
+        /**
+         * 是否落后了（缓冲满过，下次要推重新同步）
+         */
+        private boolean lagged = false;
+    }
+
+    /**
+     * 事件总线
+     */
+    private final RingEventBus eventBus;
+
+    /**
+     * 节点树（拷节点时拿它的锁）
+     */
+    private final NodeTree nodeTree;
+
+    /**
+     * 攒批间隔（ms），第一条增量进来后等这么久再推
+     */
+    @Value("${great-plan.push.batch-interval}")
+    private Long batchInterval;
+
+    /**
+     * 每个页面的缓冲上限（条）
+     */
+    @Value("${great-plan.push.buffer-size}")
+    private Integer bufferSize;
+
+    /**
+     * 所有页面连接
+     */
+    private final Map<SseEmitter, Client> clients = new ConcurrentHashMap<>();
+
+    /**
+     * 增量序号
+     */
+    private final AtomicLong seq = new AtomicLong();
+
+    /**
+     * 是否已经排了一次推送
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    /**
+     * 推送线程
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * 构造器
+     * @param eventBus 事件总线
+     * @param nodeTree 节点树
+     */
+    public ChangePushService(RingEventBus eventBus, NodeTree nodeTree) {
+        this.eventBus = eventBus;
+        this.nodeTree = nodeTree;
+    }
+
+    /**
+     * 初始化<br/>
+     * 在事件总线上订阅。
+     */
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Change-Push");
+            thread.setDaemon(true);
+            return thread;
+        });
+        eventBus.subscribe("push", this::onEvent);
+    }
+
+    /**
+     * 关闭<br/>
+     * 断开所有页面。
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        for (SseEmitter emitter : clients.keySet()) {
+            emitter.complete();
+        }
+        clients.clear();
+    }
+
+    /**
+     * 订阅<br/>
+     * 页面连上来以后只收连上之后的变化，连上之前的状态页面自己拉。
+     * @return SSE推送器
+     */
+    public SseEmitter subscribe() {
+        Client client = new Client();
+        SseEmitter emitter = client.emitter;
+        clients.put(emitter, client);
+        emitter.onCompletion(() -> clients.remove(emitter));
+        emitter.onTimeout(() -> clients.remove(emitter));
+        emitter.onError(e -> clients.remove(emitter));
+        log.info("__________页面订阅变更推送，当前{}个", clients.size());
+        return emitter;
+    }
+
+    /**
+     * 处理总线事件<br/>
+     * 在总线的消费者线程里调用，只做成增量放进缓冲，不在这里推。
+     * @param event 事件
+     * @param sequence 序号
+     * @param endOfBatch 是否这一批的最后一个
+     */
+    private void onEvent(RingEventBus.Slot event, long sequence, boolean endOfBatch) {
+        switch (event.getType()) {
+            case NODE_CHANGE -> onNodeChange((NodeChange) event.getPayload());
+            case HEAT_CHANGE -> onHeatChange((Node) event.getPayload());
+            case PLUGINS_CHANGE -> onPluginsChange();
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * 节点树发生变更
+     * @param change 变更记录
+     */
+    private void onNodeChange(NodeChange change) {
+        if (clients.isEmpty()) {
+            return;
+        }
+        TreeDelta delta = new TreeDelta();
+        delta.setParentId(change.getParentId());
+        if (change.getKind() == NodeChangeKind.ADDED) {
+            delta.setKind(DeltaKind.ADDED);
+            delta.setNodes(snapshotOf(change.getNodes()));
+        } else {
+            delta.setKind(DeltaKind.REMOVED);
+            delta.setIds(change.getNodes().stream().map(node -> node.getId()).toList());
+        }
+        publish(delta);
+    }
+
+    /**
+     * 拷一份节点<br/>
+     * 子节点ID集在节点树的锁里拷，树同时在改也拷得到完整的一份。
+     * @param nodes 树里的节点
+     * @return 拷贝
+     */
+    private List<Node> snapshotOf(List<Node> nodes) {
+        List<Node> copies = new ArrayList<>(nodes.size());
+        synchronized (nodeTree) {
+            for (Node node : nodes) {
+                Node copy;
+                if (node instanceof DirectoryNode directoryNode) {
+                    DirectoryNode directoryCopy = new DirectoryNode();
+                    directoryCopy.setScanStatus(directoryNode.getScanStatus());
+                    copy = directoryCopy;
+                } else if (node instanceof FileNode fileNode) {
+                    FileNode fileCopy = new FileNode();
+                    fileCopy.setSize(fileNode.getSize());
+                    fileCopy.setFileType(fileNode.getFileType());
+                    fileCopy.setLastModified(fileNode.getLastModified());
+                    copy = fileCopy;
+                } else {
+                    copy = new Node();
+                }
+                copy.setId(node.getId());
+                copy.setName(node.getName());
+                copy.setNodeType(node.getNodeType());
+                copy.setPath(node.getPath());
+                copy.setParentNode(node.getParentNode());
+                copy.setChildNode(new ArrayList<>(node.getChildNode()));
+                copy.setClickHeat(node.getClickHeat());
+                copies.add(copy);
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * 节点热度变化
+     * @param node 节点
+     */
+    private void onHeatChange(Node node) {
+        if (clients.isEmpty() || node == null) {
+            return;
+        }
+        TreeDelta delta = new TreeDelta();
+        delta.setKind(DeltaKind.HEAT);
+        delta.setIds(List.of(node.getId()));
+        delta.setHeat(node.getClickHeat());
+        publish(delta);
+    }
+
+    /**
+     * 插件注册表发生变化<br/>
+     * 只告诉页面变了，页面自己去拉注册表（注册表不大，而且一次重扫会连着变好多次，合成一条就够）。
+     */
+    private void onPluginsChange() {
+        if (clients.isEmpty()) {
+            return;
+        }
+        TreeDelta delta = new TreeDelta();
+        delta.setKind(DeltaKind.PLUGINS);
+        publish(delta);
+    }
+
+    /**
+     * 发布增量<br/>
+     * 放进每个页面的缓冲，满了的标记为落后；然后排一次推送（已经排了就不再排）。
+     * @param delta 增量
+     */
+    private void publish(TreeDelta delta) {
+        delta.setSeq(seq.incrementAndGet());
+        for (Client client : clients.values()) {
+            synchronized (client) {
+                if (client.lagged) {
+                    continue;
+                }
+                // 插件变化在一批里只留一条
+                if (delta.getKind() == DeltaKind.PLUGINS
+                        && client.buffer.stream().anyMatch(d -> d.getKind() == DeltaKind.PLUGINS)) {
+                    continue;
+                }
+                if (client.buffer.size() >= bufferSize) {
+                    client.buffer = new ArrayList<>();
+                    client.lagged = true;
+                    continue;
+                }
+                client.buffer.add(delta);
+            }
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * 排一次推送（已经排了就不再排）
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flush, batchInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 推送<br/>
+     * 在推送线程里跑，每个页面攒下的增量一次推完；落后的页面推重新同步。
+     * 推送失败说明页面断开了，直接清掉；增量序列化不了的，这批已经拿出来了，标记为落后，下次推重新同步，不能悄悄丢掉。
+     */
+    private void flush() {
+        // 先放开标记，推送期间进来的增量会再排一次
+        flushScheduled.set(false);
+        for (Client client : clients.values()) {
+            List<TreeDelta> batch;
+            boolean lagged;
+            synchronized (client) {
+                batch = client.buffer;
+                lagged = client.lagged;
+                client.buffer = new ArrayList<>();
+                client.lagged = false;
+            }
+            try {
+                if (lagged) {
+                    client.emitter.send(SseEmitter.event().name("resync").data(seq.get()));
+                } else if (!batch.isEmpty()) {
+                    client.emitter.send(SseEmitter.event().name("delta").data(batch));
+                }
+            } catch (IOException | IllegalStateException e) {
+                clients.remove(client.emitter);
+                client.emitter.completeWithError(e);
+            } catch (RuntimeException e) {
+                log.error("__________变更推送失败，改推重新同步", e);
+                synchronized (client) {
+                    client.buffer = new ArrayList<>();
+                    client.lagged = true;
+                }
+                scheduleFlush();
+            }
+        }
+    }
+}
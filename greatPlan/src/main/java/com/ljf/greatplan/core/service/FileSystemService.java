@@ -9,30 +9,83 @@ package com.ljf.greatplan.core.service;
 
 import com.ljf.greatplan.core.entity.Node;
 import com.ljf.greatplan.core.entity.NodeTree;
+import com.ljf.greatplan.core.enums.BusEventType;
+import com.ljf.greatplan.general.listener.fileSystemListener.FileSystemListener;
+import com.ljf.greatplan.general.scanner.DuplicateFileFinder;
+import com.ljf.greatplan.general.timeer.NodeMemoryBudget;
+import com.ljf.greatplan.general.tools.generalTools.ChangeJournal;
+import com.ljf.greatplan.general.tools.generalTools.RingEventBus;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 文件系统服务器<br/>
  * 用于核心包的，对文件系统进行操作或构建的一些功能。
  */
 @Service
+@Slf4j
 public class FileSystemService {
     /**
      * 节点树
      */
     private NodeTree nodeTree;
 
+    /**
+     * 重复文件查找器
+     */
+    private DuplicateFileFinder duplicateFileFinder;
+
+    /**
+     * 节点树内存预算
+     */
+    private NodeMemoryBudget nodeMemoryBudget;
+
+    /**
+     * 文件系统监听器
+     */
+    private FileSystemListener fileSystemListener;
+
+    /**
+     * 变更推送服务
+     */
+    private ChangePushService changePushService;
+
+    /**
+     * 事件总线
+     */
+    private RingEventBus eventBus;
+
+    /**
+     * 变更日志
+     */
+    private ChangeJournal changeJournal;
+
     /**
      * 构造器
      * @param nodeTree 节点树
+     * @param duplicateFileFinder 重复文件查找器
+     * @param nodeMemoryBudget 节点树内存预算
+     * @param fileSystemListener 文件系统监听器
+     * @param changePushService 变更推送服务
+     * @param eventBus 事件总线
+     * @param changeJournal 变更日志
      */
-    public FileSystemService(NodeTree nodeTree) {
+    public FileSystemService(NodeTree nodeTree, DuplicateFileFinder duplicateFileFinder, NodeMemoryBudget nodeMemoryBudget, FileSystemListener fileSystemListener, ChangePushService changePushService, RingEventBus eventBus, ChangeJournal changeJournal) {
         this.nodeTree = nodeTree;
+        this.duplicateFileFinder = duplicateFileFinder;
+        this.nodeMemoryBudget = nodeMemoryBudget;
+        this.fileSystemListener = fileSystemListener;
+        this.changePushService = changePushService;
+        this.eventBus = eventBus;
+        this.changeJournal = changeJournal;
     }
 
     /**
@@ -42,6 +95,13 @@ public class FileSystemService {
      */
     public void popularityIncreases(String nodeId) {
         nodeTree.popularityIncreases(nodeId);
+        // 点击同时也是内存预算的访问频率来源
+        nodeMemoryBudget.onAccess(nodeId);
+        // 新热度发到总线上（推给页面等），点击请求不能等环腾空位，满了这次就不发了（下次点击会再带上最新热度）
+        Node node = nodeTree.getNodeById(nodeId);
+        if (node != null) {
+            eventBus.tryPublish(BusEventType.HEAT_CHANGE, node);
+        }
     }
 
     /**
@@ -75,4 +135,87 @@ public class FileSystemService {
 
         return null;
     }
+
+    /**
+     * 查找重复文件<br/>
+     * 异步跑查找任务，结果通过SSE边算边推。
+     * 每确认一组推一个group事件，全部跑完推一个done事件（统计信息）。
+     * @param path 限定范围的目录（为空则查整棵节点树）
+     * @return SSE推送器
+     */
+    public SseEmitter findDuplicates(String path) {
+        // 不设超时，大目录算得久
+        SseEmitter emitter = new SseEmitter(0L);
+        CompletableFuture.runAsync(() -> {
+            try {
+                Map<String, Object> stats = duplicateFileFinder.find(path, group -> {
+                    try {
+                        emitter.send(SseEmitter.event().name("group").data(group));
+                    } catch (IOException e) {
+                        // 页面断开了
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                emitter.send(SseEmitter.event().name("done").data(stats));
+                emitter.complete();
+            } catch (Exception e) {
+                log.error("__________重复文件查找中断", e);
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * 订阅变更推送
+     * @return SSE推送器
+     */
+    public SseEmitter subscribeChanges() {
+        return changePushService.subscribe();
+    }
+
+    /**
+     * 订阅变更日志<br/>
+     * 给外部工具跟着读，按偏移量断点续读。
+     * @param offset 开始的偏移量（可以为null）
+     * @param consumer 读的一方的名字（可以为null）
+     * @return SSE推送器
+     */
+    public SseEmitter subscribeJournal(Long offset, String consumer) {
+        return changeJournal.subscribe(offset, consumer);
+    }
+
+    /**
+     * 提交变更日志的偏移量
+     * @param consumer 读的一方的名字
+     * @param offset 下一条要读的偏移量
+     */
+    public void commitJournalOffset(String consumer, long offset) {
+        changeJournal.commit(consumer, offset);
+    }
+
+    /**
+     * 获取变更日志统计
+     * @return 统计
+     */
+    public Map<String, Long> getJournalStats() {
+        return changeJournal.getStats();
+    }
+
+    /**
+     * 获取事件总线统计
+     * @return 统计
+     */
+    public Map<String, Long> getBusStats() {
+        return eventBus.getStats();
+    }
+
+    /**
+     * 获取监听统计<br/>
+     * 变更防抖的待处理，收到，合并，已应用数量。
+     * @return 统计
+     */
+    public Map<String, Long> getListenerStats() {
+        return fileSystemListener.getStats();
+    }
 }
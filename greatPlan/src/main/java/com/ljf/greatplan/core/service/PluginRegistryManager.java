@@ -7,6 +7,8 @@
 
 package com.ljf.greatplan.core.service;
 
+import com.ljf.greatplan.core.enums.BusEventType;
+import com.ljf.greatplan.general.tools.generalTools.RingEventBus;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
@@ -17,6 +19,7 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * 插件注册表管理器<br/>
  * 保存插件信息至插件注册表，并管理这个注册表.
+ * 注册表每变一次都会往事件总线上发一个插件注册表变化事件。
  */
 @Component
 @Slf4j
@@ -54,6 +57,19 @@ public class PluginRegistryManager {
      */
     private final Map<String, Plugin> pluginRegistry = new ConcurrentHashMap<>();
 
+    /**
+     * 事件总线
+     */
+    private final RingEventBus eventBus;
+
+    /**
+     * 构造器
+     * @param eventBus 事件总线
+     */
+    public PluginRegistryManager(RingEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
     /**
      * 注册插件
      * @param id 插件名
@@ -66,6 +82,7 @@ public class PluginRegistryManager {
         info.pluginResourceInfo = pluginResourceInfo;
         // 将插件对象注册至插件注册表
         pluginRegistry.put(id, info);
+        notifyListeners();
     }
 
     /**
@@ -74,7 +91,9 @@ public class PluginRegistryManager {
      */
     public void uninstallPlugin(String id) {
         // 跟据插件名删除插件注册表中指定插件对象
-        pluginRegistry.remove(id);
+        if (pluginRegistry.remove(id) != null) {
+            notifyListeners();
+        }
     }
 
     /**
@@ -83,6 +102,14 @@ public class PluginRegistryManager {
     public void clear() {
         // 清空插件注册表
         pluginRegistry.clear();
+        notifyListeners();
+    }
+
+    /**
+     * 发出插件注册表变化事件
+     */
+    private void notifyListeners() {
+        eventBus.publish(BusEventType.PLUGINS_CHANGE, null);
     }
 
     /**
@@ -7,9 +7,10 @@
 
 package com.ljf.greatplan.core.service;
 
+import com.ljf.greatplan.core.enums.HashAlgorithm;
+import com.ljf.greatplan.general.tools.generalTools.ContentHashCache;
 import com.ljf.greatplan.general.tools.generalTools.SerializationAndString;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
@@ -48,14 +49,21 @@ public class PluginService {
      */
     private SerializationAndString serializationAndString;
 
+    /**
+     * 内容哈希缓存
+     */
+    private final ContentHashCache contentHashCache;
+
     /**
      * 构造器
      * @param serializationAndString 序列化与字符串工具类
      * @param pluginRegistryManager 插件注册表管理器
+     * @param contentHashCache 内容哈希缓存
      */
-    public PluginService(SerializationAndString serializationAndString, PluginRegistryManager pluginRegistryManager) {
+    public PluginService(SerializationAndString serializationAndString, PluginRegistryManager pluginRegistryManager, ContentHashCache contentHashCache) {
         this.serializationAndString = serializationAndString;
         this.pluginRegistryManager = pluginRegistryManager;
+        this.contentHashCache = contentHashCache;
     }
 
     /**
@@ -80,9 +88,6 @@ public class PluginService {
             for (Resource res : resources) {
                 // 获取资源名
                 String filename = res.getFilename().toLowerCase();
-                // 计算文件哈希
-                byte[] fileBytes = res.getInputStream().readAllBytes();
-                String hash = DigestUtils.md5Hex(fileBytes);
                 // 获取插件名
                 String pluginName = res.getURL().toString()
                         .replaceFirst(".*/static/plugins/", "")
@@ -111,6 +116,8 @@ public class PluginService {
                                 .replaceFirst(".*/static/plugins/", "");
                         // 添加资源（类型与名字）
                         ((List<String>) meta.get(type)).add(relativePath);
+                        // 计算文件哈希（只拿来判断文件变没变，用快速哈希就够了，没改过的文件直接走缓存不用重读）
+                        String hash = contentHashCache.hash(res.getFile().toPath(), HashAlgorithm.XXH32);
                         // 添加文件哈希（文件版本号）
                         Map<String, String> versions = (Map<String, String>) meta.get("versions");
                         versions.put(relativePath, hash);
@@ -14,6 +14,7 @@ import com.ljf.greatplan.general.scanner.SpecifyDirectoryScanner;
 import com.ljf.greatplan.general.tools.generalTools.FileIO;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -109,4 +110,96 @@ public class FileController extends BaseController{
         log.info("__________打开指定文件的请求");
         return success(fileSystemService.openFile(path));
     }
+
+    /**
+     * 查找重复文件<br/>
+     * 对节点树中已扫描的文件做重复检测，以SSE流的形式边算边推结果。
+     * @param path 限定范围的目录（不给就查整棵节点树）
+     * @return SSE推送器
+     */
+    @GetMapping("/duplicates")
+    public SseEmitter findDuplicates(@RequestParam(required = false) String path) {
+        log.info("__________查找重复文件的请求");
+        return fileSystemService.findDuplicates(path);
+    }
+
+    /**
+     * 订阅变更推送<br/>
+     * 节点树和插件注册表的变化以SSE流的形式推过来，代替页面每秒轮询。
+     * 事件：delta（一批增量），resync（页面落后了，要整个重新拉一遍）。
+     * @return SSE推送器
+     */
+    @GetMapping("/changes")
+    public SseEmitter subscribeChanges() {
+        log.info("__________订阅变更推送的请求");
+        return fileSystemService.subscribeChanges();
+    }
+
+    /**
+     * 订阅变更日志<br/>
+     * 给外部工具跟着节点树的变化，不用自己再递归监听一遍。先推落盘的旧记录，再跟着推新的。
+     * 偏移量的优先级：参数，断线重连时带的Last-Event-ID的下一条，这个名字提交过的，都没有就只推之后的。
+     * 事件：change（一条变更记录，事件ID是偏移量），gap（要读的已经被删了，从还在的最早一条开始）。
+     * @param offset 开始的偏移量
+     * @param consumer 读的一方的名字
+     * @param lastEventId 断线重连时浏览器带上的最后一个事件ID
+     * @return SSE推送器
+     */
+    @GetMapping("/journal")
+    public SseEmitter subscribeJournal(@RequestParam(required = false) Long offset,
+                                       @RequestParam(required = false) String consumer,
+                                       @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        log.info("__________订阅变更日志的请求");
+        if (offset == null && lastEventId != null) {
+            offset = lastEventId + 1;
+        }
+        return fileSystemService.subscribeJournal(offset, consumer);
+    }
+
+    /**
+     * 提交变更日志的偏移量<br/>
+     * 记下这个名字下次从哪开始读，重启后还在。
+     * @param consumer 读的一方的名字
+     * @param offset 下一条要读的偏移量
+     * @return 标准视图响应对象
+     */
+    @PostMapping("/journal/commit")
+    public StandardViewResponseObject<Void> commitJournalOffset(@RequestParam String consumer, @RequestParam Long offset) {
+        log.info("__________提交变更日志偏移量的请求");
+        fileSystemService.commitJournalOffset(consumer, offset);
+        return success();
+    }
+
+    /**
+     * 获取变更日志统计<br/>
+     * 看看日志里最早和最新的偏移量，有几个段，占了多大。
+     * @return 统计
+     */
+    @PostMapping("/journalStats")
+    public StandardViewResponseObject<Map<String, Long>> getJournalStats() {
+        log.info("__________获取变更日志统计的请求");
+        return success(fileSystemService.getJournalStats());
+    }
+
+    /**
+     * 获取事件总线统计<br/>
+     * 看看各类事件发了多少，环满等过几次，每个消费者落后多少。
+     * @return 统计
+     */
+    @PostMapping("/busStats")
+    public StandardViewResponseObject<Map<String, Long>> getBusStats() {
+        log.info("__________获取事件总线统计的请求");
+        return success(fileSystemService.getBusStats());
+    }
+
+    /**
+     * 获取监听统计<br/>
+     * 看看文件变更防抖攒了多少，合并了多少，应用了多少。
+     * @return 统计
+     */
+    @PostMapping("/listenerStats")
+    public StandardViewResponseObject<Map<String, Long>> getListenerStats() {
+        log.info("__________获取监听统计的请求");
+        return success(fileSystemService.getListenerStats());
+    }
 }
@@ -10,6 +10,8 @@ package com.ljf.greatplan.docking.urlInterface;
 import com.ljf.greatplan.core.entity.StandardViewResponseObject;
 import com.ljf.greatplan.core.service.PluginRegistryManager;
 import com.ljf.greatplan.core.web.BaseController;
+import com.ljf.greatplan.general.tools.pluginsTools.CompilerDaemon;
+import com.ljf.greatplan.general.tools.pluginsTools.PluginStartupOrchestrator;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -30,12 +32,26 @@ public class PluginController extends BaseController {
      */
     private final PluginRegistryManager registryManager;
 
+    /**
+     * 编译守护
+     */
+    private final CompilerDaemon compilerDaemon;
+
+    /**
+     * 插件启动编排器
+     */
+    private final PluginStartupOrchestrator startupOrchestrator;
+
     /**
      * 构造器
      * @param registryManager 插件注册表管理器
+     * @param compilerDaemon 编译守护
+     * @param startupOrchestrator 插件启动编排器
      */
-    public PluginController(PluginRegistryManager registryManager) {
+    public PluginController(PluginRegistryManager registryManager, CompilerDaemon compilerDaemon, PluginStartupOrchestrator startupOrchestrator) {
         this.registryManager = registryManager;
+        this.compilerDaemon = compilerDaemon;
+        this.startupOrchestrator = startupOrchestrator;
     }
 
     /**
@@ -51,4 +67,24 @@ public class PluginController extends BaseController {
                 .collect(Collectors.toList())
         );
     }
+
+    /**
+     * 获取插件编译耗时统计<br/>
+     * 总的和每个插件的编译次数，上次，平均，最大耗时，以及预热耗时和文件管理器池的情况。
+     * @return 统计表
+     */
+    @GetMapping("/compileStats")
+    public StandardViewResponseObject<Map<String, Object>> getCompileStats() {
+        return success(compilerDaemon.getStats());
+    }
+
+    /**
+     * 获取插件启动时间线<br/>
+     * 启动编排的总耗时，以及每个插件的状态和编译，挂载的起止时刻。
+     * @return 时间线
+     */
+    @GetMapping("/startupTimeline")
+    public StandardViewResponseObject<Map<String, Object>> getStartupTimeline() {
+        return success(startupOrchestrator.getTimeline());
+    }
 }
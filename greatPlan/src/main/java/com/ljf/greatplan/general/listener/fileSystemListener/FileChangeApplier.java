@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.listener.fileSystemListener;
+
+import com.ljf.greatplan.core.entity.*;
+import com.ljf.greatplan.core.enums.FileChangeKind;
+import com.ljf.greatplan.core.enums.NodeChangeCause;
+import com.ljf.greatplan.core.enums.NodeType;
+import com.ljf.greatplan.core.enums.ScanStatus;
+import com.ljf.greatplan.general.scanner.SpecifyDirectoryScanner;
+import com.ljf.greatplan.general.tools.generalTools.FileIO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件变更应用器<br/>
+ * 把监听到的文件变更直接改进节点树，不用等谁去重扫。
+ * 新建就加节点（目录再浅扫一层），删除就删整个子树，修改就刷新大小和修改时间。
+ * 事件按目录成批处理：同一批里同一个路径的多个事件先合并成最终状态，再动节点树，每个路径只动一次。
+ * 事件溢出（内核队列满了丢了事件）或者监听失效时，只把出事的这一个目录重新同步一遍：
+ * 列一下目录，和节点树里它的子节点对比，多的加，少的删，还在的刷新，不用整棵树重扫。
+ * 改名和移动在监听看来是一个删除加一个新建（跨目录时两边还在不同的批里）。
+ * 所以带身份标识的节点被删时先不删，记下来等一小会儿；这期间新建出来的东西身份标识对得上，就是被移过去了，
+ * 把原来的子树整个搬过去（热度，扫描状态都在，不用再扫盘）；等过了还没人认领，才真的删掉。
+ * 这里对节点树的改动都圈定为文件系统起因。
+ */
+@Component
+@Slf4j
+public class FileChangeApplier {
+    /**
+     * 节点树
+     */
+    private final NodeTree nodeTree;
+
+    /**
+     * 指定目录扫描器
+     */
+    private final SpecifyDirectoryScanner scanner;
+
+    /**
+     * 文件IO工具类
+     */
+    private final FileIO fileIO;
+
+    /**
+     * 移动配对窗口（ms），被删的节点等这么久没被认领才真的删（0为不等，不认移动）
+     */
+    @Value("${great-plan.file-system.listener.rename-window}")
+    private Long renameWindow;
+
+    /**
+     * 等着被认领的删除：<节点ID, 最晚等到的时刻>
+     */
+    private final Map<String, Long> pendingDeletes = new ConcurrentHashMap<>();
+
+    /**
+     * 认出的移动次数
+     */
+    private final AtomicLong relocations = new AtomicLong();
+
+    /**
+     * 构造器
+     * @param nodeTree 节点树
+     * @param scanner 指定目录扫描器
+     * @param fileIO 文件IO工具类
+     */
+    public FileChangeApplier(NodeTree nodeTree, SpecifyDirectoryScanner scanner, FileIO fileIO) {
+        this.nodeTree = nodeTree;
+        this.scanner = scanner;
+        this.fileIO = fileIO;
+    }
+
+    /**
+     * 应用一个目录的一批变更
+     * @param dir 目录（绝对路径）
+     * @param events 这个目录的一批变更
+     * @return 实际改动了节点树的变更数
+     */
+    public int apply(String dir, List<FileChangeEvent> events) {
+        return nodeTree.withCause(NodeChangeCause.FILESYSTEM, () -> applyBatch(dir, events));
+    }
+
+    /**
+     * 应用一个目录的一批变更（在文件系统起因里）
+     * @param dir 目录（绝对路径）
+     * @param events 这个目录的一批变更
+     * @return 实际改动了节点树的变更数
+     */
+    private int applyBatch(String dir, List<FileChangeEvent> events) {
+        Node dirNode = nodeTree.getNodeById(fileIO.generateId(new File(dir)));
+        // 不在树里的目录不用管（已经被剪掉了，或者还没被扫过）
+        if (dirNode == null) {
+            return 0;
+        }
+
+        // 合并同一路径的事件，溢出的话这批的具体事件都不可信了，直接重新同步这个目录
+        Map<String, FileChangeKind> merged = new LinkedHashMap<>();
+        for (FileChangeEvent event : events) {
+            if (event.getKind() == FileChangeKind.OVERFLOW) {
+                return resync(dirNode);
+            }
+            merged.merge(event.getPath(), event.getKind(), this::merge);
+        }
+
+        int applied = 0;
+        for (Map.Entry<String, FileChangeKind> entry : merged.entrySet()) {
+            boolean changed = switch (entry.getValue()) {
+                case CREATED -> created(dirNode, new File(entry.getKey()));
+                case DELETED -> deleted(new File(entry.getKey()));
+                case MODIFIED -> modified(dirNode, new File(entry.getKey()));
+                case OVERFLOW -> false;
+            };
+            if (changed) {
+                applied++;
+            }
+        }
+        if (applied > 0) {
+            log.info("__________{}的{}个变更已应用到节点树", dir, applied);
+        }
+        return applied;
+    }
+
+    /**
+     * 合并同一路径的前后两个事件<br/>
+     * 删了又建就是新建（按新建处理，会把旧的替换掉），建了又改还是新建，其它以后一个为准。
+     * @param before 前一个
+     * @param after 后一个
+     * @return 合并后的
+     */
+    private FileChangeKind merge(FileChangeKind before, FileChangeKind after) {
+        if (after == FileChangeKind.MODIFIED && before != FileChangeKind.DELETED) {
+            return before;
+        }
+        return after;
+    }
+
+    /**
+     * 新建<br/>
+     * 已经在树里且类型没变的（比如刚被扫描过）当修改处理，类型变了的（删了又建成另一种）先整个删掉再重建。
+     * 所在目录的子级还没加载过的不挂，只挂一个新的上去会让它看起来只有这一个子级，留给点开时的扫描。
+     * @param dirNode 所在目录节点
+     * @param file 新建的文件或目录
+     * @return 是否改动了节点树
+     */
+    private boolean created(Node dirNode, File file) {
+        if (!file.exists()) {
+            // 建完马上又没了，当删除处理
+            return deleted(file);
+        }
+        String id = fileIO.generateId(file);
+        // 删了又回来了，不用再删
+        pendingDeletes.remove(id);
+        if (!childrenLoaded(dirNode)) {
+            return false;
+        }
+        NodeType type = file.isDirectory() ? NodeType.DIRECTORY : NodeType.File;
+        String fileKey = fileIO.fileKeyOf(file);
+        // 身份标识对得上、原来的位置已经没了的节点，就是被移过来的
+        Node moved = fileKey == null ? null : nodeTree.getNodeByFileKey(fileKey);
+        if (moved != null && !moved.getId().equals(id) && moved.getNodeType() == type
+                && !new File(moved.getPath()).exists()) {
+            return relocated(dirNode, moved, file, fileKey);
+        }
+        Node existing = nodeTree.getNodeById(id);
+        if (existing != null) {
+            if (existing.getNodeType() == type) {
+                nodeTree.updateFileKey(existing, fileKey);
+                return refresh(existing, file);
+            }
+            nodeTree.removeSubtree(id);
+        }
+        Node node = scanner.scanEntry(file, dirNode.getId());
+        if (node == null) {
+            return false;
+        }
+        attach(dirNode, node.getId());
+        return true;
+    }
+
+    /**
+     * 移过来了<br/>
+     * 把原来的子树整个搬到新位置。
+     * 新位置上原来就有一个文件的，是原地替换（编辑器先写临时文件再改名盖过来），留着原来那个（热度是它的），换个身份标识，移过来的删掉。
+     * @param dirNode 新位置所在目录节点
+     * @param moved 被移过来的子树根节点
+     * @param file 新位置的文件或目录
+     * @param fileKey 身份标识
+     * @return 是否改动了节点树
+     */
+    private boolean relocated(Node dirNode, Node moved, File file, String fileKey) {
+        pendingDeletes.remove(moved.getId());
+        String oldPath = moved.getPath();
+        Node existing = nodeTree.getNodeById(fileIO.generateId(file));
+        if (existing != null && existing.getNodeType() == NodeType.File) {
+            nodeTree.removeSubtree(moved.getId());
+            nodeTree.updateFileKey(existing, fileKey);
+            refresh(existing, file);
+            return true;
+        }
+        // 名字（文件还有类型）跟着新路径变，搬之前改好，加入变更里带的就是新的
+        if (moved instanceof FileNode fileNode) {
+            fileNode.setName(fileIO.stripExtension(file.getName()));
+            fileNode.setFileType(fileIO.getFileExtension(file.getName()));
+            fileNode.setSize(String.valueOf(file.length()));
+            fileNode.setLastModified(file.lastModified());
+        } else {
+            moved.setName(file.getName());
+        }
+        int count = nodeTree.relocate(moved.getId(), dirNode.getId(), file.getAbsolutePath(),
+                path -> fileIO.generateId(new File(path)));
+        if (count > 0) {
+            relocations.incrementAndGet();
+            log.info("__________{}被移动到{}，{}个节点原样搬过去", oldPath, file, count);
+        }
+        return count > 0;
+    }
+
+    /**
+     * 挂到目录节点下（已经挂着的不重复挂）
+     * @param dirNode 目录节点
+     * @param id 子节点ID
+     * @return 是否新挂上了
+     */
+    private boolean attach(Node dirNode, String id) {
+        synchronized (nodeTree) {
+            if (dirNode.getChildNode().contains(id)) {
+                return false;
+            }
+            dirNode.getChildNode().add(id);
+            return true;
+        }
+    }
+
+    /**
+     * 删除<br/>
+     * 整个子树一起删。带身份标识的先不删，等移动配对窗口过了没人认领再删。
+     * @param file 被删除的文件或目录
+     * @return 是否改动了节点树（等着的不算）
+     */
+    private boolean deleted(File file) {
+        String id = fileIO.generateId(file);
+        Node node = nodeTree.getNodeById(id);
+        if (node == null) {
+            return false;
+        }
+        if (node.getFileKey() != null && renameWindow > 0) {
+            pendingDeletes.put(id, System.currentTimeMillis() + renameWindow);
+            return false;
+        }
+        return nodeTree.removeSubtree(id) > 0;
+    }
+
+    /**
+     * 删掉过了窗口还没被认领的<br/>
+     * 原来的位置又有东西了（删了又建回来）的不删，新建那边会处理。
+     */
+    @Scheduled(fixedDelayString = "${great-plan.file-system.listener.rename-sweep-interval}")
+    public void expirePendingDeletes() {
+        // 窗口为0时不会有等着的，这里也就空转
+        if (pendingDeletes.isEmpty()) {
+            return;
+        }
+        nodeTree.withCause(NodeChangeCause.FILESYSTEM, () -> {
+            removeExpired();
+            return null;
+        });
+    }
+
+    /**
+     * 删掉过了窗口还没被认领的（在文件系统起因里）
+     */
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> entry : pendingDeletes.entrySet()) {
+            // 抢在移动认领之前拿到的才删
+            if (entry.getValue() > now || !pendingDeletes.remove(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+            Node node = nodeTree.getNodeById(entry.getKey());
+            if (node != null && !new File(node.getPath()).exists()) {
+                nodeTree.removeSubtree(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 获取统计
+     * @return 等着被认领的删除数，认出的移动次数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("pendingDeletes", (long) pendingDeletes.size());
+        stats.put("relocations", relocations.get());
+        return stats;
+    }
+
+    /**
+     * 修改<br/>
+     * 文件刷新大小和修改时间；目录的修改事件是子级变化带出来的，子级自己会有事件，不用管。
+     * 不在树里的（比如漏了新建事件）按新建处理。
+     * @param dirNode 所在目录节点
+     * @param file 被修改的文件或目录
+     * @return 是否改动了节点树
+     */
+    private boolean modified(Node dirNode, File file) {
+        Node node = nodeTree.getNodeById(fileIO.generateId(file));
+        if (node == null) {
+            return created(dirNode, file);
+        }
+        return refresh(node, file);
+    }
+
+    /**
+     * 刷新文件节点的大小和修改时间
+     * @param node 节点
+     * @param file 对应的文件
+     * @return 是否改动了节点树（大小和修改时间都没变就不算）
+     */
+    private boolean refresh(Node node, File file) {
+        if (node instanceof FileNode fileNode) {
+            String size = String.valueOf(file.length());
+            long lastModified = file.lastModified();
+            if (size.equals(fileNode.getSize()) && Long.valueOf(lastModified).equals(fileNode.getLastModified())) {
+                return false;
+            }
+            fileNode.setSize(size);
+            fileNode.setLastModified(lastModified);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 重新同步一个目录<br/>
+     * 只看这一层：列出目录里现有的条目，和节点树里的子节点对比后应用差异。
+     * 列表里有、树里没有的按新建处理；树里有、列表里没有的整个子树删掉（带身份标识的一样先等着被认领）；两边都有的刷新。
+     * 子目录自己的事件由它们自己的监听报上来，这里不递归。
+     * 子级还没加载过的目录（没扫过，或者部分扫描且没有子节点：被折叠的，扫到深度限制停下的）本来就要等点开时扫，这里不去展开它。
+     * 同步完按子节点重新定一下扫描状态。
+     * @param dirNode 目录节点
+     * @return 实际改动了节点树的变更数
+     */
+    public int resync(Node dirNode) {
+        return nodeTree.withCause(NodeChangeCause.FILESYSTEM, () -> resyncDir(dirNode));
+    }
+
+    /**
+     * 重新同步一个目录（在文件系统起因里）
+     * @param dirNode 目录节点
+     * @return 实际改动了节点树的变更数
+     */
+    private int resyncDir(Node dirNode) {
+        File dir = new File(dirNode.getPath());
+        // 目录自己都没了，整个子树删掉（可能是被移走了，一样先等着被认领）
+        if (!dir.isDirectory()) {
+            log.warn("__________{}已不存在，重新同步时删除", dir);
+            return deleted(dir) ? 1 : 0;
+        }
+        if (!childrenLoaded(dirNode)) {
+            return 0;
+        }
+        File[] listing = dir.listFiles();
+        if (listing == null) {
+            log.error("__________{}无法列出，跳过重新同步", dir);
+            return 0;
+        }
+
+        // 目录里现有的条目：<节点ID, 文件>
+        Map<String, File> present = new LinkedHashMap<>();
+        for (File file : listing) {
+            if (scanner.isVisible(file)) {
+                present.put(fileIO.generateId(file), file);
+            }
+        }
+
+        int applied = 0;
+        // 树里有、目录里已经没了的
+        List<String> children;
+        synchronized (nodeTree) {
+            children = new ArrayList<>(dirNode.getChildNode());
+        }
+        for (String childId : children) {
+            Node child = nodeTree.getNodeById(childId);
+            if (!present.containsKey(childId) && child != null && deleted(new File(child.getPath()))) {
+                applied++;
+            }
+        }
+        // 新出现的和还在的（新建会自己分辨是真的新建还是刷新）
+        for (Map.Entry<String, File> entry : present.entrySet()) {
+            boolean changed = created(dirNode, entry.getValue());
+            // 节点在树里但没挂在这个目录下的，补挂上
+            if (nodeTree.getNodeById(entry.getKey()) != null && attach(dirNode, entry.getKey())) {
+                changed = true;
+            }
+            if (changed) {
+                applied++;
+            }
+        }
+        updateScanStatus(dirNode);
+        log.warn("__________{}的监听事件丢失，已重新同步：列出{}个，原有{}个，应用{}个变更", dir, present.size(), children.size(), applied);
+        return applied;
+    }
+
+    /**
+     * 目录的子级加载过没有<br/>
+     * 没扫过的，部分扫描且没有子节点的（被折叠的，扫到深度限制停下的，只扫了深度0的根目录）都算没加载。
+     * @param dirNode 目录节点
+     * @return 是否加载过
+     */
+    private boolean childrenLoaded(Node dirNode) {
+        if (!(dirNode instanceof DirectoryNode directoryNode)) {
+            return true;
+        }
+        if (directoryNode.getScanStatus() == ScanStatus.NOT_SCANNED) {
+            return false;
+        }
+        return !(directoryNode.getScanStatus() == ScanStatus.PARTIAL_SCAN && dirNode.getChildNode().isEmpty());
+    }
+
+    /**
+     * 按子节点重新定目录的扫描状态<br/>
+     * 和扫描器一个口径：有子目录还不是完全扫描的就是部分扫描，否则完全扫描。
+     * @param dirNode 目录节点
+     */
+    private void updateScanStatus(Node dirNode) {
+        if (!(dirNode instanceof DirectoryNode directoryNode)) {
+            return;
+        }
+        List<String> children;
+        synchronized (nodeTree) {
+            children = new ArrayList<>(dirNode.getChildNode());
+        }
+        ScanStatus status = ScanStatus.FULLY_SCANNED;
+        for (String childId : children) {
+            if (nodeTree.getNodeById(childId) instanceof DirectoryNode child
+                    && child.getScanStatus() != ScanStatus.FULLY_SCANNED) {
+                status = ScanStatus.PARTIAL_SCAN;
+                break;
+            }
+        }
+        directoryNode.setScanStatus(status);
+    }
+}
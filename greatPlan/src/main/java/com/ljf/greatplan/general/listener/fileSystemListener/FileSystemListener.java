@@ -8,33 +8,91 @@
 package com.ljf.greatplan.general.listener.fileSystemListener;
 
 import com.ljf.greatplan.core.entity.*;
+import com.ljf.greatplan.core.enums.BusEventType;
+import com.ljf.greatplan.core.enums.FileChangeKind;
+import com.ljf.greatplan.core.enums.NodeChangeKind;
+import com.ljf.greatplan.core.enums.NodeType;
+import com.ljf.greatplan.core.enums.WatcherBackendType;
+import com.ljf.greatplan.general.listener.pluginsListener.PluginSourceListener;
+import com.ljf.greatplan.general.tools.pluginsTools.SubContainersManager;
+import com.ljf.greatplan.general.timeer.CoalescingDebouncer;
+import com.ljf.greatplan.general.tools.generalTools.RingEventBus;
+import com.ljf.greatplan.general.tools.generalTools.WriteIntentRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicLong;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.*;
 
 /**
  * 文件系统监听器<br/>
  * 监听整个文件系统，反应文件或目录的增删改事件。
+ * 监听本身交给监听后端，这里只管决定哪些目录要被监听，以及事件来了怎么办。
+ * 后端按根目录选：默认走系统监听（监听分发器，一个共享的WatchService），配置成轮询的根目录（网络挂载之类）走快照轮询器。
+ * 走系统监听的目录还要过监听预算，放不下的（不够热的）降级到快照轮询器。
+ * 要监听的目录跟着节点树走：目录节点加入就注册，被移除就注销，不再有整棵树推倒重来的监听组重建。
+ * 一次变更的开销只和真正变了的目录数有关。
+ * 监听到的事件翻译后发到事件总线上，由总线消费者（tree-updates）按目录防抖合并后，交给文件变更应用器直接改进节点树。
+ * 程序自己写的文件（写入意图登记表里有的）写完就直接按已知变化交给防抖，监听再报上来的自写事件直接丢掉。
  */
 @Component
 @Slf4j
-public class FileSystemListener {
+public class FileSystemListener implements NodeChangeListener {
     /**
-     * 监听树
+     * 节点树
      */
-    private ListeningTree listeningTree;
+    private NodeTree nodeTree;
 
     /**
-     * 监听单元组
+     * 监听后端：<类型, 后端>
      */
-    private ListeningUnitGroup listeningUnitGroup;
+    private final Map<WatcherBackendType, WatcherBackend> backends = new EnumMap<>(WatcherBackendType.class);
+
+    /**
+     * 默认监听后端
+     */
+    @Value("${great-plan.file-system.listener.backend.default}")
+    private WatcherBackendType defaultBackend;
+
+    /**
+     * 按根目录指定的监听后端（根目录=类型，逗号分隔）
+     */
+    @Value("${great-plan.file-system.listener.backend.roots}")
+    private String backendRoots;
+
+    /**
+     * 按根目录指定的监听后端：<根目录, 类型>
+     */
+    private final Map<Path, WatcherBackendType> rootBackends = new LinkedHashMap<>();
+
+    /**
+     * 文件变更应用器
+     */
+    private FileChangeApplier fileChangeApplier;
+
+    /**
+     * 事件总线
+     */
+    private RingEventBus eventBus;
+
+    /**
+     * 监听预算
+     */
+    private WatchBudget watchBudget;
+
+    /**
+     * 写入意图登记表
+     */
+    private WriteIntentRegistry writeIntentRegistry;
 
     /**
      * 上下文对象（取豆子的）
@@ -43,88 +101,267 @@ public class FileSystemListener {
     private ApplicationContext context;
 
     /**
-     * 上次重建时间（防抖，避免短时多次重建搞得炸机）
+     * 插件源码地址
+     */
+    @Value("${great-plan.plugin.source-dir}")
+    private String pluginSourceDir;
+
+    /**
+     * 防抖安静期（ms）
+     */
+    @Value("${great-plan.file-system.listener.debounce.quiet}")
+    private Long debounceQuiet;
+
+    /**
+     * 防抖最长等待（ms）
      */
-    private final AtomicLong lastRebuildTime = new AtomicLong(0);
+    @Value("${great-plan.file-system.listener.debounce.max-wait}")
+    private Long debounceMaxWait;
 
     /**
-     * 防抖间隔（最少需要间隔多久才能触发一次监听组重建行为）
+     * 按目录合并防抖，一串事件合成一次应用
      */
-    @Value("${great-plan.file-system.listener.anti-shake-intervals}")
-    private Integer antiShakeIntervals;
+    private CoalescingDebouncer<String, FileChangeEvent> debouncer;
 
     /**
      * 构造器
-     * @param listeningTree 监听树对象
-     * @param listeningUnitGroup 监听单元组对象
+     * @param nodeTree 节点树
+     * @param backends 所有监听后端
+     * @param fileChangeApplier 文件变更应用器
+     * @param eventBus 事件总线
+     * @param watchBudget 监听预算
+     * @param writeIntentRegistry 写入意图登记表
      */
-    public FileSystemListener(ListeningTree listeningTree, ListeningUnitGroup listeningUnitGroup) {
-        this.listeningTree = listeningTree;
-        this.listeningUnitGroup = listeningUnitGroup;
+    public FileSystemListener(NodeTree nodeTree, List<WatcherBackend> backends, FileChangeApplier fileChangeApplier, RingEventBus eventBus, WatchBudget watchBudget, WriteIntentRegistry writeIntentRegistry) {
+        this.nodeTree = nodeTree;
+        for (WatcherBackend backend : backends) {
+            this.backends.put(backend.getType(), backend);
+        }
+        this.fileChangeApplier = fileChangeApplier;
+        this.eventBus = eventBus;
+        this.watchBudget = watchBudget;
+        this.writeIntentRegistry = writeIntentRegistry;
     }
 
     /**
-     * 构建监听组<br/>
-     * 给每个路径段创建一个独立监听单元。
-     * 收录到监听单元组后直接启动监听任务。
-     */
-    public void buildListeningGroup() {
-        log.info("__________开始构建监听组");
-
-        // 从监听树获取所有路径段
-        List<List<String>> pathSegments = new ArrayList<>(listeningTree.getTree().values());
-        // 遍历路径段组，给每个路径段都挂上一个监听单元进行事件监听
-        for (List<String> segment : pathSegments) {
-            // 新建监听单元
-            ListeningUnit unit = context.getBean(ListeningUnit.class);
-            // 负责的路径段
-            unit.setPathSegment(segment);
-            // 线程名
-            unit.setName("ListeningUnit-" + segment.get(segment.size() - 1));
-            // 加入监听单元组
-            listeningUnitGroup.addListeningUnit(listeningTree.getPathSegmentId(segment), unit);
-            // 启动
-            unit.start();
-            log.info("__________监听单元启动，指向{}路径段", segment);
+     * 初始化<br/>
+     * 读取按根目录指定的后端，把事件处理交给各个后端，向节点树登记，树里已经有的目录先注册上。
+     */
+    @PostConstruct
+    public void init() {
+        for (String item : backendRoots.split(",")) {
+            int split = item.lastIndexOf('=');
+            if (split <= 0) {
+                continue;
+            }
+            try {
+                rootBackends.put(Paths.get(item.substring(0, split).trim()).toAbsolutePath(),
+                        WatcherBackendType.valueOf(item.substring(split + 1).trim()));
+            } catch (IllegalArgumentException e) {
+                // 配错了不能让程序起不来，这个根目录用默认后端
+                log.warn("__________监听后端配置有误，已忽略：{}（可选：{}）", item.trim(), Arrays.toString(WatcherBackendType.values()));
+            }
+        }
+        debouncer = new CoalescingDebouncer<>("File-Change-Applier", debounceQuiet, debounceMaxWait, this::applyChanges);
+        eventBus.subscribe("tree-updates", this::onBusEvent);
+        writeIntentRegistry.setHandler(this::onSelfWrite);
+        for (WatcherBackend backend : backends.values()) {
+            backend.setHandler(this::onEvents);
         }
+        nodeTree.addChangeListener(this);
+        for (Node node : nodeTree.getTree().values()) {
+            if (node.getNodeType() == NodeType.DIRECTORY) {
+                watch(node);
+            }
+        }
+    }
 
-        log.info("__________监听组构建完成，组内共{}个单元", pathSegments.size());
+    /**
+     * 关闭<br/>
+     * 攒着没应用的变更先应用掉。
+     */
+    @PreDestroy
+    public void shutdown() {
+        debouncer.shutdown();
     }
 
     /**
-     * 重建监听组<br/>
-     * 暂停所有监听单元的活动，删除所有监听单元，重建监听树，根据当前监听树保存的路径段重新构建监听组。
-     * 打上锁，虽然已经有防抖筛了一次。
-     * 毕竟任何监听单元都有权利申请重建，监听单元理论又是无限多的。
-     * 只能是防一手了。
-     */
-    private synchronized void rebuildListeningGroup() {
-        // 清空监听单元组
-        listeningUnitGroup.delListeningUnitGroup();
-        // 清空监听树
-        listeningTree.resetTree();
-        // 重建监听树
-        listeningTree.rootTraversal();
-        // 重建监听单元组
-        buildListeningGroup();
+     * 获取监听统计
+     * @return 各后端监听的目录数，监听预算，丢掉的自写事件数，等着配对的删除数，认出的移动数，防抖的待处理目录数，收到，合并，已应用的批数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        for (WatcherBackend backend : backends.values()) {
+            stats.put(backend.getType().name().toLowerCase(), (long) backend.getRegistered().size());
+        }
+        stats.putAll(watchBudget.getStats());
+        stats.put("selfWriteSuppressed", writeIntentRegistry.getSuppressed());
+        stats.putAll(fileChangeApplier.getStats());
+        stats.putAll(debouncer.getStats());
+        return stats;
     }
 
     /**
-     * 请求重建<br/>
-     * 不允许外部直接调用重建监听组的逻辑。
-     * 由这个单一入口卡住，避免如多个监听单元同时检测到事件，同时申请重建监听组。
+     * 节点树发生变更<br/>
+     * 加入的目录注册，移除的目录注销，文件节点不用管（它们的事件由所在目录报上来）。
+     * @param change 变更记录
      */
-    public synchronized void requestRebuild(String triggerName) {
-        // 当前时间
+    @Override
+    public void onNodeChange(NodeChange change) {
+        for (Node node : change.getNodes()) {
+            if (node.getNodeType() != NodeType.DIRECTORY) {
+                continue;
+            }
+            if (change.getKind() == NodeChangeKind.ADDED) {
+                watch(node);
+            } else {
+                unwatch(Paths.get(node.getPath()));
+            }
+        }
+    }
+
+    /**
+     * 监听目录<br/>
+     * 该走系统监听的交给监听预算分配，其它的直接交给对应后端。
+     * @param dirNode 目录节点
+     */
+    private void watch(Node dirNode) {
+        Path dir = Paths.get(dirNode.getPath());
+        WatcherBackend backend = backendOf(dir);
+        if (backend.getType() == WatcherBackendType.NIO) {
+            watchBudget.watch(dirNode);
+        } else {
+            backend.register(dir);
+        }
+    }
+
+    /**
+     * 取消监听目录
+     * @param dir 目录
+     */
+    private void unwatch(Path dir) {
+        WatcherBackend backend = backendOf(dir);
+        if (backend.getType() == WatcherBackendType.NIO) {
+            watchBudget.unwatch(dir);
+        } else {
+            backend.cancel(dir);
+        }
+    }
+
+    /**
+     * 选监听后端<br/>
+     * 目录在哪个指定过的根目录下就用哪个根目录的后端（指定的根目录有嵌套的话取最近的那个），都不在就用默认的。
+     * 同一个目录每次选出来的都一样，注册和注销不会走到两个后端去。
+     * @param dir 目录
+     * @return 监听后端
+     */
+    private WatcherBackend backendOf(Path dir) {
+        Path absolute = dir.toAbsolutePath();
+        Path matchedRoot = null;
+        WatcherBackendType type = defaultBackend;
+        for (Map.Entry<Path, WatcherBackendType> entry : rootBackends.entrySet()) {
+            if (absolute.startsWith(entry.getKey())
+                    && (matchedRoot == null || entry.getKey().getNameCount() > matchedRoot.getNameCount())) {
+                matchedRoot = entry.getKey();
+                type = entry.getValue();
+            }
+        }
+        WatcherBackend backend = backends.get(type);
+        return backend == null ? backends.get(defaultBackend) : backend;
+    }
+
+    /**
+     * 处理一批监听事件<br/>
+     * 由监听后端的线程调用，同一个目录的事件按顺序到达。
+     * 翻译后发到事件总线上，总线满了会在这里等（背压一路传回监听后端，再满就是内核溢出，走重新同步）。
+     * @param dir 发生事件的目录
+     * @param events 这个目录的一批事件
+     */
+    private void onEvents(Path dir, List<WatchEvent<?>> events) {
+        log.info("__________监听到{}发生{}个事件", dir, events.size());
+        List<FileChangeEvent> changes = translate(dir, events);
+        // 自己写的已经按已知变化处理过了
+        changes.removeIf(change -> change.getKind() != FileChangeKind.OVERFLOW
+                && writeIntentRegistry.isSelfWrite(Paths.get(change.getPath())));
+        if (!changes.isEmpty()) {
+            eventBus.publish(BusEventType.FILE_CHANGES, changes);
+        }
+    }
+
+    /**
+     * 自己写完了一个文件<br/>
+     * 变化是已知的，直接按新建（已存在的会变成刷新）交给所在目录的防抖，不等监听，也不用走总线。
+     * 还是走防抖（单线程应用），免得和同一个目录的其它变更抢着改，也不在写文件的线程里干活。
+     * @param path 文件路径
+     */
+    private void onSelfWrite(Path path) {
+        Path parent = path.getParent();
+        if (parent == null) {
+            return;
+        }
+        String dir = parent.toString();
+        debouncer.submit(dir, List.of(new FileChangeEvent(FileChangeKind.CREATED, dir, path.toString(), System.currentTimeMillis())));
+    }
+
+    /**
+     * 处理总线事件<br/>
+     * 在总线的消费者线程里调用，文件变更按目录交给防抖，一串事件攒成一批再应用。
+     * @param event 事件
+     * @param sequence 序号
+     * @param endOfBatch 是否这一批的最后一个
+     */
+    @SuppressWarnings("unchecked")
+    private void onBusEvent(RingEventBus.Slot event, long sequence, boolean endOfBatch) {
+        if (event.getType() != BusEventType.FILE_CHANGES) {
+            return;
+        }
+        List<FileChangeEvent> changes = (List<FileChangeEvent>) event.getPayload();
+        if (!changes.isEmpty()) {
+            debouncer.submit(changes.get(0).getDir(), changes);
+        }
+    }
+
+    /**
+     * 应用一个目录攒下的变更<br/>
+     * 由防抖的唯一处理线程调用。
+     * @param dir 目录
+     * @param changes 攒下的变更（按发生顺序）
+     */
+    private void applyChanges(String dir, List<FileChangeEvent> changes) {
+        // 改进节点树
+        fileChangeApplier.apply(dir, changes);
+
+        // 若为AI插件的补充工具方法目录
+        // 现在缺少专门面向单个文件的热编译逻辑，只能复用全量热编译
+        if (Paths.get(dir).toAbsolutePath().equals(Paths.get(pluginSourceDir, "aiSecretary", "toolMethodFromAI").toAbsolutePath())) {
+            // 强行卸载插件
+            context.getBean(SubContainersManager.class).unloadSubContainer("aiSecretary");
+            // 重编译，强制刷新，让新加入的工具类也能被编译进来
+            context.getBean(PluginSourceListener.class).registerPluginBeans(new File(pluginSourceDir, "aiSecretary"));
+        }
+    }
+
+    /**
+     * 翻译监听事件
+     * @param dir 发生事件的目录
+     * @param events 这个目录的一批监听事件
+     * @return 文件变更事件
+     */
+    private List<FileChangeEvent> translate(Path dir, List<WatchEvent<?>> events) {
         long now = System.currentTimeMillis();
-        // 若相比上次重建时间的间隔小于1秒，就退出去
-        // 不许重建！
-        if (now - lastRebuildTime.get() < antiShakeIntervals) return;
-        // 重新设置时间
-        lastRebuildTime.set(now);
-        // 重建（异步执行重建，免得和监听单元尤其和主程序流打架）
-        log.info("__________收到监听组重建请求");
-        log.info("__________请求申请者：{}", triggerName + "，时间: " + now);
-        CompletableFuture.runAsync(this::rebuildListeningGroup);
+        List<FileChangeEvent> changes = new ArrayList<>();
+        for (WatchEvent<?> event : events) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW) {
+                changes.add(new FileChangeEvent(FileChangeKind.OVERFLOW, dir.toString(), dir.toString(), now));
+                continue;
+            }
+            String path = dir.resolve((Path) event.context()).toString();
+            FileChangeKind changeKind = kind == StandardWatchEventKinds.ENTRY_CREATE ? FileChangeKind.CREATED
+                    : kind == StandardWatchEventKinds.ENTRY_DELETE ? FileChangeKind.DELETED
+                    : FileChangeKind.MODIFIED;
+            changes.add(new FileChangeEvent(changeKind, dir.toString(), path, now));
+        }
+        return changes;
     }
 }
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.listener.fileSystemListener;
+
+import com.ljf.greatplan.core.entity.Node;
+import com.ljf.greatplan.core.entity.NodeTree;
+import com.ljf.greatplan.core.enums.WatcherBackendType;
+import com.ljf.greatplan.general.tools.generalTools.FileIO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 快照轮询器（轮询监听后端）<br/>
+ * 给WatchService靠不住的地方用（网络挂载，绑定挂载，一些容器文件系统，事件会丢或者退化成很慢的轮询）。
+ * 每个注册的目录记一份快照：目录自己的修改时间，和每个直接子级的（是否目录，大小，修改时间）。
+ * 每轮先只看目录自己的修改时间，没变就认为没有增删改名，不去列目录；变了才列出来逐个对比，造出新建/删除/修改事件。
+ * 目录的修改时间管不到文件内容的修改，所以还没冷掉（轮询间隔比最长的短）的目录每轮会把子级也对比一遍。
+ * 轮询间隔按目录热度在最短和最长之间调：越热查得越勤，冷的慢慢查；刚发现过变化的目录下一轮按最短间隔查。
+ */
+@Component
+@Slf4j
+public class SnapshotPoller implements WatcherBackend {
+    /**
+     * 子级快照（是否目录，大小，修改时间）
+     */
+    private record Entry(boolean directory, long size, long lastModified) {}
+
+    /**
+     * 目录快照<br/>
+     * 内部类，只在轮询线程里读写。
+     */
+    private static class Snapshot {
+        /**
+         * 目录自己的修改时间
+         */
+        private long lastModified;
+
+        /**
+         * 子级快照：<名字, 快照>
+         */
+        private Map<String, Entry> entries = new HashMap<>();
+
+        /**
+         * 下次轮询时刻（ms）
+         */
+        private long nextPollAt;
+    }
+
+    /**
+     * 节点树（取目录热度）
+     */
+    private final NodeTree nodeTree;
+
+    /**
+     * 文件IO工具类
+     */
+    private final FileIO fileIO;
+
+    /**
+     * 快照表：<目录, 快照>
+     */
+    private final Map<Path, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * 最短轮询间隔（ms），最热的目录按这个查
+     */
+    @Value("${great-plan.file-system.listener.polling.min-interval}")
+    private Long minInterval;
+
+    /**
+     * 最长轮询间隔（ms），冷掉的目录按这个查
+     */
+    @Value("${great-plan.file-system.listener.polling.max-interval}")
+    private Long maxInterval;
+
+    /**
+     * 轮询线程醒来的间隔（ms）
+     */
+    @Value("${great-plan.file-system.listener.polling.tick}")
+    private Long tick;
+
+    /**
+     * 事件处理者（目录，这个目录的一批事件）
+     */
+    private volatile BiConsumer<Path, List<WatchEvent<?>>> handler = (dir, events) -> {};
+
+    /**
+     * 轮询线程
+     */
+    private ScheduledExecutorService executor;
+
+    /**
+     * 构造器
+     * @param nodeTree 节点树
+     * @param fileIO 文件IO工具类
+     */
+    public SnapshotPoller(NodeTree nodeTree, FileIO fileIO) {
+        this.nodeTree = nodeTree;
+        this.fileIO = fileIO;
+    }
+
+    /**
+     * 启动
+     */
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Watch-Poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::pollDue, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止
+     */
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 后端类型
+     * @return 快照轮询
+     */
+    @Override
+    public WatcherBackendType getType() {
+        return WatcherBackendType.POLLING;
+    }
+
+    /**
+     * 设置事件处理者
+     * @param handler 事件处理者（目录，这个目录的一批事件）
+     */
+    @Override
+    public void setHandler(BiConsumer<Path, List<WatchEvent<?>>> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 注册目录<br/>
+     * 注册时就拍好第一份快照，之后的变化都和它比。
+     * @param dir 目录
+     * @return 是否新注册了
+     */
+    @Override
+    public boolean register(Path dir) {
+        if (snapshots.containsKey(dir) || !Files.isDirectory(dir)) {
+            return false;
+        }
+        Snapshot snapshot = new Snapshot();
+        try {
+            snapshot.lastModified = Files.getLastModifiedTime(dir).toMillis();
+            snapshot.entries = list(dir);
+        } catch (IOException e) {
+            log.error("__________目录轮询注册失败：{}", dir, e);
+            return false;
+        }
+        snapshot.nextPollAt = System.currentTimeMillis() + minInterval;
+        return snapshots.putIfAbsent(dir, snapshot) == null;
+    }
+
+    /**
+     * 注销目录
+     * @param dir 目录
+     */
+    @Override
+    public void cancel(Path dir) {
+        snapshots.remove(dir);
+    }
+
+    /**
+     * 注销所有目录
+     */
+    @Override
+    public void cancelAll() {
+        snapshots.clear();
+    }
+
+    /**
+     * 已注册的目录
+     * @return 目录集合
+     */
+    @Override
+    public Set<Path> getRegistered() {
+        return snapshots.keySet();
+    }
+
+    /**
+     * 轮询到期的目录<br/>
+     * 轮询线程每次醒来调用，没到期的目录连修改时间都不看。
+     */
+    private void pollDue() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Path, Snapshot> entry : snapshots.entrySet()) {
+            if (entry.getValue().nextPollAt > now) {
+                continue;
+            }
+            try {
+                poll(entry.getKey(), entry.getValue(), now);
+            } catch (RuntimeException e) {
+                // 一个目录出错不能让轮询线程停掉
+                log.error("__________目录轮询失败：{}", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * 轮询一个目录
+     * @param dir 目录
+     * @param snapshot 上一份快照
+     * @param now 当前时刻（ms）
+     */
+    private void poll(Path dir, Snapshot snapshot, long now) {
+        double heat = heatOf(dir, now);
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(dir).toMillis();
+        } catch (IOException e) {
+            // 目录没了或者读不了，注销掉，让处理者把它重新同步（会发现目录没了）
+            snapshots.remove(dir, snapshot);
+            handler.accept(dir, List.of(SyntheticWatchEvent.OVERFLOW));
+            return;
+        }
+
+        List<WatchEvent<?>> events = List.of();
+        // 修改时间变了说明有增删改名；没冷掉的目录额外对比一遍，抓文件内容的修改
+        if (lastModified != snapshot.lastModified || intervalOf(heat) < maxInterval) {
+            Map<String, Entry> entries;
+            try {
+                entries = list(dir);
+            } catch (IOException e) {
+                log.error("__________目录轮询列出失败：{}", dir, e);
+                snapshot.nextPollAt = now + maxInterval;
+                return;
+            }
+            events = diff(snapshot.entries, entries);
+            snapshot.lastModified = lastModified;
+            snapshot.entries = entries;
+        }
+
+        // 有变化的下一轮按最短间隔查，没变化的按热度定
+        snapshot.nextPollAt = now + (events.isEmpty() ? intervalOf(heat) : minInterval);
+        if (!events.isEmpty()) {
+            handler.accept(dir, events);
+        }
+    }
+
+    /**
+     * 对比前后两份子级快照
+     * @param before 上一份
+     * @param after 这一份
+     * @return 造出来的监听事件（上下文是子级名字）
+     */
+    private List<WatchEvent<?>> diff(Map<String, Entry> before, Map<String, Entry> after) {
+        List<WatchEvent<?>> events = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : after.entrySet()) {
+            Entry old = before.get(entry.getKey());
+            Path name = Paths.get(entry.getKey());
+            if (old == null) {
+                events.add(new SyntheticWatchEvent<>(StandardWatchEventKinds.ENTRY_CREATE, name));
+            } else if (old.directory() != entry.getValue().directory()) {
+                // 删了又建成另一种
+                events.add(new SyntheticWatchEvent<>(StandardWatchEventKinds.ENTRY_DELETE, name));
+                events.add(new SyntheticWatchEvent<>(StandardWatchEventKinds.ENTRY_CREATE, name));
+            } else if (!old.equals(entry.getValue())) {
+                events.add(new SyntheticWatchEvent<>(StandardWatchEventKinds.ENTRY_MODIFY, name));
+            }
+        }
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) {
+                events.add(new SyntheticWatchEvent<>(StandardWatchEventKinds.ENTRY_DELETE, Paths.get(name)));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 列出目录的直接子级并记下快照
+     * @param dir 目录
+     * @return <名字, 快照>
+     * @throws IOException 目录读不了
+     */
+    private Map<String, Entry> list(Path dir) throws IOException {
+        Map<String, Entry> entries = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    entries.put(child.getFileName().toString(),
+                            new Entry(attrs.isDirectory(), attrs.isDirectory() ? 0 : attrs.size(), attrs.lastModifiedTime().toMillis()));
+                } catch (IOException e) {
+                    // 列的时候刚好被删了，当它不存在
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 取目录的当前热度
+     * @param dir 目录
+     * @param now 当前时刻（ms）
+     * @return 热度（不在树里就是0）
+     */
+    private double heatOf(Path dir, long now) {
+        Node node = nodeTree.getNodeById(fileIO.generateId(dir.toFile()));
+        return node == null ? 0 : node.heatAt(now);
+    }
+
+    /**
+     * 按热度算轮询间隔<br/>
+     * 热度100（刚被点开或刚加入）及以上按最短间隔，冷掉（不足1）按最长间隔，中间线性过渡。
+     * @param heat 热度
+     * @return 间隔（ms）
+     */
+    private long intervalOf(double heat) {
+        double ratio = Math.max(0, Math.min(1, heat / 100));
+        return maxInterval - (long) ((maxInterval - minInterval) * ratio);
+    }
+}
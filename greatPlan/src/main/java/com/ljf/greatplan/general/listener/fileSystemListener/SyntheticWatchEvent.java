@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.listener.fileSystemListener;
+
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+
+/**
+ * 合成的监听事件<br/>
+ * 不是WatchService给的，是自己造的（轮询对比出来的变化，监听失效时补的溢出），和系统给的一样交给处理者。
+ * @param kind 事件类型
+ * @param context 发生变化的条目（相对所在目录的路径，溢出时为null）
+ * @param <T> 条目类型
+ */
+record SyntheticWatchEvent<T>(Kind<T> kind, T context) implements WatchEvent<T> {
+    /**
+     * 溢出事件
+     */
+    static final SyntheticWatchEvent<Object> OVERFLOW = new SyntheticWatchEvent<>(StandardWatchEventKinds.OVERFLOW, null);
+
+    @Override
+    public int count() {
+        return 1;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.listener.fileSystemListener;
+
+import com.ljf.greatplan.core.entity.Node;
+import com.ljf.greatplan.core.entity.NodeTree;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 监听预算<br/>
+ * Linux上每个被系统监听的目录都占一个inotify watch，每个用户有上限，超了以后再注册就会失败。
+ * 这里管着系统监听（NIO）最多给多少个目录用，按热度和最近访问分配：最热的目录用系统监听，放不下的降级到快照轮询。
+ * 热度按半衰期指数衰减，log2(热度) + 结算时间 / 半衰期 这个值不随时间变（大家衰减得一样快），只在被点击时变，
+ * 所以可以直接拿它排序（热度高的、最近被点过的排前面），不用每次都重算所有目录的热度。
+ * 系统监听满了又来一个更热的目录，就把最冷的那个降级给它腾位置；系统监听的目录被移除后，轮询里最热的补上来。
+ * 注册失败时预算缩到当前用量（一个都没有就全部走轮询），再平衡时再试着放回配置的预算。
+ * 系统监听失效要重新注册的目录也从这里走，注册不上就降级。
+ * 点击会改变排序，所以定时再平衡一次。
+ */
+@Component
+@Slf4j
+public class WatchBudget {
+    /**
+     * 分配条目（目录，节点ID，排序值）
+     */
+    private record Entry(Path dir, String nodeId, double rank) {}
+
+    /**
+     * 排序：排序值小的在前（冷的在前），一样的按路径
+     */
+    private static final Comparator<Entry> ORDER = Comparator.comparingDouble(Entry::rank)
+            .thenComparing(entry -> entry.dir().toString());
+
+    /**
+     * inotify上限的位置
+     */
+    private static final Path INOTIFY_LIMIT = Paths.get("/proc/sys/fs/inotify/max_user_watches");
+
+    /**
+     * 系统监听后端
+     */
+    private final WatchDispatcher watchDispatcher;
+
+    /**
+     * 轮询监听后端
+     */
+    private final SnapshotPoller snapshotPoller;
+
+    /**
+     * 节点树
+     */
+    private final NodeTree nodeTree;
+
+    /**
+     * 最多占用多少个系统监听（0为自动）
+     */
+    @Value("${great-plan.file-system.listener.watch-budget.max-watches}")
+    private Integer maxWatches;
+
+    /**
+     * 自动时占系统上限的比例（%），其它程序也要用
+     */
+    @Value("${great-plan.file-system.listener.watch-budget.share-percent}")
+    private Integer sharePercent;
+
+    /**
+     * 热度半衰期（ms）
+     */
+    @Value("${great-plan.node-attenuation.half-life}")
+    private Long heatHalfLife;
+
+    /**
+     * 系统上限（-1为读不到，即不是Linux）
+     */
+    private long systemLimit = -1;
+
+    /**
+     * 预算（注册失败时会缩到当前用量）
+     */
+    private int budget;
+
+    /**
+     * 配置算出来的预算（缩了以后往回长的上限）
+     */
+    private int ceiling;
+
+    /**
+     * 预算是否缩过（还没长回去）
+     */
+    private boolean shrunk;
+
+    /**
+     * 用系统监听的目录
+     */
+    private final TreeSet<Entry> watched = new TreeSet<>(ORDER);
+
+    /**
+     * 降级到轮询的目录
+     */
+    private final TreeSet<Entry> demoted = new TreeSet<>(ORDER);
+
+    /**
+     * 目录到条目的索引
+     */
+    private final Map<Path, Entry> entries = new HashMap<>();
+
+    /**
+     * 降级次数
+     */
+    private long demotions;
+
+    /**
+     * 升级次数
+     */
+    private long promotions;
+
+    /**
+     * 系统监听注册失败次数
+     */
+    private long registerFailures;
+
+    /**
+     * 构造器
+     * @param watchDispatcher 系统监听后端
+     * @param snapshotPoller 轮询监听后端
+     * @param nodeTree 节点树
+     */
+    public WatchBudget(WatchDispatcher watchDispatcher, SnapshotPoller snapshotPoller, NodeTree nodeTree) {
+        this.watchDispatcher = watchDispatcher;
+        this.snapshotPoller = snapshotPoller;
+        this.nodeTree = nodeTree;
+    }
+
+    /**
+     * 初始化<br/>
+     * 读系统上限，算出预算。
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            systemLimit = Long.parseLong(Files.readString(INOTIFY_LIMIT).trim());
+        } catch (IOException | NumberFormatException e) {
+            // 不是Linux（或者读不了），没有这个上限
+            systemLimit = -1;
+        }
+        if (maxWatches > 0) {
+            budget = maxWatches;
+        } else if (systemLimit > 0) {
+            budget = (int) Math.min(Integer.MAX_VALUE, systemLimit * sharePercent / 100);
+        } else {
+            budget = Integer.MAX_VALUE;
+        }
+        ceiling = budget;
+        watchDispatcher.setKeyLostHandler(this::reRegister);
+        log.info("__________监听预算：系统上限{}，预算{}", systemLimit, budget);
+    }
+
+    /**
+     * 监听目录<br/>
+     * 有空位就用系统监听；满了就和最冷的比，比它热就把它降级腾位置，否则自己去轮询。
+     * @param dirNode 目录节点
+     */
+    public synchronized void watch(Node dirNode) {
+        Path dir = Paths.get(dirNode.getPath());
+        if (entries.containsKey(dir) || !Files.isDirectory(dir)) {
+            return;
+        }
+        Entry entry = new Entry(dir, dirNode.getId(), rankOf(dirNode));
+        entries.put(dir, entry);
+        if (watched.size() >= budget) {
+            // 预算缩没了（系统监听一个都注册不上），没有可以腾的，直接轮询
+            if (watched.isEmpty()) {
+                demote(entry);
+                return;
+            }
+            Entry coldest = watched.first();
+            if (ORDER.compare(entry, coldest) <= 0) {
+                demote(entry);
+                return;
+            }
+            demote(coldest);
+        }
+        if (!promote(entry)) {
+            demote(entry);
+        }
+    }
+
+    /**
+     * 取消监听目录<br/>
+     * 腾出来的系统监听给轮询里最热的目录。
+     * @param dir 目录
+     */
+    public synchronized void unwatch(Path dir) {
+        Entry entry = entries.remove(dir);
+        if (entry == null) {
+            return;
+        }
+        if (watched.remove(entry)) {
+            watchDispatcher.cancel(dir);
+            fillFreeSlots();
+        } else if (demoted.remove(entry)) {
+            snapshotPoller.cancel(dir);
+        }
+    }
+
+    /**
+     * 重新注册<br/>
+     * 系统监听失效了但目录还在，注册不上（或者不归预算管的）就降级到轮询。
+     * @param dir 目录
+     */
+    public synchronized void reRegister(Path dir) {
+        Entry entry = entries.get(dir);
+        if (entry == null) {
+            watchDispatcher.register(dir);
+            return;
+        }
+        watched.remove(entry);
+        demoted.remove(entry);
+        snapshotPoller.cancel(dir);
+        if (watched.size() >= budget || !promote(entry)) {
+            demote(entry);
+        }
+    }
+
+    /**
+     * 再平衡<br/>
+     * 预算缩过的先放回配置的预算再试（注册不上会再缩回来），
+     * 再按当前热度重新排序，轮询里比系统监听里最冷的还热的，两边对换。
+     */
+    @Scheduled(fixedDelayString = "${great-plan.file-system.listener.watch-budget.rebalance-interval}")
+    public synchronized void rebalance() {
+        if (budget < ceiling) {
+            budget = ceiling;
+        }
+        reRank(watched);
+        reRank(demoted);
+        int swaps = 0;
+        while (!demoted.isEmpty() && !watched.isEmpty()
+                && ORDER.compare(demoted.last(), watched.first()) > 0) {
+            Entry hot = demoted.pollLast();
+            snapshotPoller.cancel(hot.dir());
+            demote(watched.first());
+            if (!promote(hot)) {
+                demote(hot);
+                break;
+            }
+            swaps++;
+        }
+        fillFreeSlots();
+        if (shrunk && budget == ceiling) {
+            shrunk = false;
+            log.info("__________监听预算恢复到{}", ceiling);
+        }
+        if (swaps > 0) {
+            log.info("__________监听预算再平衡，对换了{}个目录", swaps);
+        }
+    }
+
+    /**
+     * 获取统计
+     * @return 系统上限，预算，系统监听用量，轮询目录数，升级，降级，注册失败次数
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("watchLimit", systemLimit);
+        stats.put("watchBudget", (long) budget);
+        stats.put("watchInUse", (long) watched.size());
+        stats.put("watchDemoted", (long) demoted.size());
+        stats.put("watchPromotions", promotions);
+        stats.put("watchDemotions", demotions);
+        stats.put("watchRegisterFailures", registerFailures);
+        return stats;
+    }
+
+    /**
+     * 升级到系统监听<br/>
+     * 注册失败说明碰到系统上限了（和别的程序一起用超了），预算缩到当前用量，等下次再平衡再往上试。
+     * @param entry 条目
+     * @return 是否注册成功
+     */
+    private boolean promote(Entry entry) {
+        if (watchDispatcher.register(entry.dir()) || watchDispatcher.getRegistered().contains(entry.dir())) {
+            watched.add(entry);
+            promotions++;
+            return true;
+        }
+        registerFailures++;
+        if (Files.isDirectory(entry.dir()) && budget > watched.size()) {
+            // 再平衡试着放回时也会走到这，已经缩过的就不用再报了
+            if (!shrunk) {
+                log.warn("__________系统监听注册失败，预算缩到{}：{}", watched.size(), entry.dir());
+            }
+            shrunk = true;
+            budget = watched.size();
+        }
+        return false;
+    }
+
+    /**
+     * 降级到轮询
+     * @param entry 条目
+     */
+    private void demote(Entry entry) {
+        if (watched.remove(entry)) {
+            watchDispatcher.cancel(entry.dir());
+        }
+        demoted.add(entry);
+        snapshotPoller.register(entry.dir());
+        demotions++;
+    }
+
+    /**
+     * 有空位时把轮询里最热的升上来
+     */
+    private void fillFreeSlots() {
+        while (watched.size() < budget && !demoted.isEmpty()) {
+            Entry hot = demoted.pollLast();
+            snapshotPoller.cancel(hot.dir());
+            if (!promote(hot)) {
+                demoted.add(hot);
+                snapshotPoller.register(hot.dir());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按当前热度重新排序
+     * @param set 条目集合
+     */
+    private void reRank(TreeSet<Entry> set) {
+        List<Entry> updated = new ArrayList<>(set.size());
+        for (Entry entry : set) {
+            Node node = nodeTree.getNodeById(entry.nodeId());
+            Entry fresh = node == null ? entry : new Entry(entry.dir(), entry.nodeId(), rankOf(node));
+            updated.add(fresh);
+            entries.put(entry.dir(), fresh);
+        }
+        set.clear();
+        set.addAll(updated);
+    }
+
+    /**
+     * 算排序值<br/>
+     * log2(热度) + 结算时间 / 半衰期，不随时间变，越大越热（越近被点过）。
+     * @param node 节点
+     * @return 排序值
+     */
+    private double rankOf(Node node) {
+        // 基准值和结算时间在节点的锁里一起读
+        synchronized (node) {
+            double heat = Math.max(node.getHeatValue(), 1e-9);
+            return Math.log(heat) / Math.log(2) + (double) node.getHeatUpdatedAt() / heatHalfLife;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.listener.fileSystemListener;
+
+import com.ljf.greatplan.core.enums.WatcherBackendType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 监听分发器（系统监听后端）<br/>
+ * 代替原来每个路径段一个监听单元（一个线程加一个WatchService）的做法。
+ * 全程序只有一个WatchService，所有目录都注册到它上面，用WatchKey到目录的登记表认出事件是哪个目录的。
+ * 一个分发线程阻塞等事件，取到就交给工作线程处理，自己马上回去等下一个。
+ * 工作线程是固定数量的单线程执行器，同一个目录的事件总是交给同一个，保证同一个目录的事件按顺序处理。
+ * 线程数只看配置，和节点树长什么样无关。
+ * WatchKey失效但目录还在时，交给失效处理者重新注册（默认直接注册，监听预算会接管这一步），并补一个溢出事件，让处理者把这个目录重新同步一遍。
+ */
+@Component
+@Slf4j
+public class WatchDispatcher implements WatcherBackend {
+    /**
+     * 共享的监听服务
+     */
+    private WatchService watchService;
+
+    /**
+     * 登记表：<WatchKey, 目录>
+     */
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+
+    /**
+     * 反查表：<目录, WatchKey>
+     */
+    private final Map<Path, WatchKey> paths = new ConcurrentHashMap<>();
+
+    /**
+     * 分发线程
+     */
+    private Thread dispatcher;
+
+    /**
+     * 工作线程（每个都是单线程执行器）
+     */
+    private ExecutorService[] workers;
+
+    /**
+     * 工作线程数
+     */
+    @Value("${great-plan.file-system.listener.workers}")
+    private Integer workerCount;
+
+    /**
+     * 事件处理者（目录，这个目录的一批事件）
+     */
+    private volatile BiConsumer<Path, List<WatchEvent<?>>> handler = (dir, events) -> {};
+
+    /**
+     * 监听失效处理者（目录还在，要重新注册）
+     */
+    private volatile Consumer<Path> keyLostHandler = dir -> register(dir);
+
+    /**
+     * 是否还在运行
+     */
+    private volatile boolean running = true;
+
+    /**
+     * 启动<br/>
+     * 建好共享的监听服务和工作线程，启动分发线程。
+     */
+    @PostConstruct
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new RuntimeException("监听服务创建失败", e);
+        }
+        workers = new ExecutorService[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            String name = "Watch-Worker-" + (i + 1);
+            workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        dispatcher = new Thread(this::dispatchLoop, "Watch-Dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        log.info("__________监听分发器启动，工作线程{}个", workerCount);
+    }
+
+    /**
+     * 后端类型
+     * @return 系统监听
+     */
+    @Override
+    public WatcherBackendType getType() {
+        return WatcherBackendType.NIO;
+    }
+
+    /**
+     * 设置事件处理者
+     * @param handler 事件处理者（目录，这个目录的一批事件）
+     */
+    @Override
+    public void setHandler(BiConsumer<Path, List<WatchEvent<?>>> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 设置监听失效处理者
+     * @param keyLostHandler 处理者（拿着目录去重新注册）
+     */
+    public void setKeyLostHandler(Consumer<Path> keyLostHandler) {
+        this.keyLostHandler = keyLostHandler;
+    }
+
+    /**
+     * 注册目录<br/>
+     * 已经注册过的不会重复注册。
+     * @param dir 目录
+     * @return 是否新注册了
+     */
+    @Override
+    public boolean register(Path dir) {
+        if (paths.containsKey(dir) || !Files.isDirectory(dir)) {
+            return false;
+        }
+        try {
+            WatchKey key = dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(key, dir);
+            paths.put(dir, key);
+            return true;
+        } catch (IOException e) {
+            log.error("__________目录监听注册失败：{}", dir, e);
+            return false;
+        }
+    }
+
+    /**
+     * 注销目录
+     * @param dir 目录
+     */
+    @Override
+    public void cancel(Path dir) {
+        WatchKey key = paths.remove(dir);
+        if (key != null) {
+            keys.remove(key);
+            key.cancel();
+        }
+    }
+
+    /**
+     * 注销所有目录
+     */
+    @Override
+    public void cancelAll() {
+        for (Path dir : new ArrayList<>(paths.keySet())) {
+            cancel(dir);
+        }
+    }
+
+    /**
+     * 已注册的目录
+     * @return 目录集合
+     */
+    @Override
+    public Set<Path> getRegistered() {
+        return paths.keySet();
+    }
+
+    /**
+     * 停止
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.error("__________监听服务关闭失败", e);
+        }
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                worker.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 分发循环<br/>
+     * 阻塞等事件，取出这个WatchKey上攒着的所有事件，马上reset，再按目录交给对应的工作线程。
+     */
+    private void dispatchLoop() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                if (running) {
+                    log.error("__________监听服务异常关闭", e);
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Path dir = keys.get(key);
+            List<WatchEvent<?>> events = key.pollEvents();
+            // reset失败说明监听失效了，从登记表里清掉
+            if (!key.reset() && dir != null) {
+                keys.remove(key);
+                if (paths.remove(dir, key) && Files.isDirectory(dir)) {
+                    // 目录还在（不是被删了，也不是被注销了），重新注册，失效期间的事件已经丢了，当溢出处理让它重新同步
+                    log.warn("__________{}的监听失效，重新注册并重新同步", dir);
+                    try {
+                        keyLostHandler.accept(dir);
+                    } catch (RuntimeException e) {
+                        log.error("__________{}重新注册失败", dir, e);
+                    }
+                    events = new ArrayList<>(events);
+                    events.add(SyntheticWatchEvent.OVERFLOW);
+                }
+            }
+            if (dir == null || events.isEmpty()) {
+                continue;
+            }
+            workers[Math.floorMod(dir.hashCode(), workers.length)].execute(() -> {
+                try {
+                    handler.accept(dir, events);
+                } catch (RuntimeException e) {
+                    log.error("__________监听事件处理失败：{}", dir, e);
+                }
+            });
+        }
+    }
+}
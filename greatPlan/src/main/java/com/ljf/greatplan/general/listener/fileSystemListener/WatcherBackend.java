@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.listener.fileSystemListener;
+
+import com.ljf.greatplan.core.enums.WatcherBackendType;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 监听后端<br/>
+ * 文件系统监听器只管决定哪些目录要监听、事件来了怎么办，具体怎么发现变化交给后端。
+ * 不管哪种后端，报上来的都是（目录，这个目录的一批WatchEvent），监听器不用区分。
+ */
+public interface WatcherBackend {
+    /**
+     * 后端类型
+     * @return 类型
+     */
+    WatcherBackendType getType();
+
+    /**
+     * 设置事件处理者
+     * @param handler 事件处理者（目录，这个目录的一批事件）
+     */
+    void setHandler(BiConsumer<Path, List<WatchEvent<?>>> handler);
+
+    /**
+     * 注册目录<br/>
+     * 已经注册过的不会重复注册。
+     * @param dir 目录
+     * @return 是否新注册了
+     */
+    boolean register(Path dir);
+
+    /**
+     * 注销目录
+     * @param dir 目录
+     */
+    void cancel(Path dir);
+
+    /**
+     * 注销所有目录
+     */
+    void cancelAll();
+
+    /**
+     * 已注册的目录
+     * @return 目录集合
+     */
+    Set<Path> getRegistered();
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.scanner;
+
+import com.ljf.greatplan.core.entity.DuplicateGroup;
+import com.ljf.greatplan.core.entity.FileNode;
+import com.ljf.greatplan.core.entity.Node;
+import com.ljf.greatplan.core.entity.NodeTree;
+import com.ljf.greatplan.core.enums.HashAlgorithm;
+import com.ljf.greatplan.general.tools.generalTools.ContentHashCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.XXHash32;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.Checksum;
+
+/**
+ * 重复文件查找器<br/>
+ * 对节点树中已经扫描出来的文件做重复检测。
+ * 分三段筛：先按文件大小分组，再对同尺寸的文件只读首尾两块做粗哈希，最后只对粗哈希还撞在一起的文件做全量哈希。
+ * 大部分文件在前两段就会被筛掉，根本轮不到被完整读一遍。
+ * 哈希丢进独立线程池并行算，读取走NIO的FileChannel加直接缓冲区，少一次堆内拷贝。
+ * 全量哈希走内容哈希缓存，没改过的文件第二次查就不用再读了。
+ */
+@Component
+@Slf4j
+public class DuplicateFileFinder {
+    /**
+     * 节点树
+     */
+    private final NodeTree nodeTree;
+
+    /**
+     * 内容哈希缓存
+     */
+    private final ContentHashCache contentHashCache;
+
+    /**
+     * 哈希线程数
+     */
+    @Value("${great-plan.file-system.duplicate.threads}")
+    private Integer threads;
+
+    /**
+     * 首尾块大小（byte）
+     */
+    @Value("${great-plan.file-system.duplicate.block-size}")
+    private Integer blockSize;
+
+    /**
+     * 哈希线程池
+     */
+    private ExecutorService hashPool;
+
+    /**
+     * 直接缓冲区（每个哈希线程一块，重复利用，不要每个文件都申请一次，粗哈希一次只读一块，大小就按块来）
+     */
+    private ThreadLocal<ByteBuffer> buffers;
+
+    /**
+     * 构造器
+     * @param nodeTree 节点树
+     * @param contentHashCache 内容哈希缓存
+     */
+    public DuplicateFileFinder(NodeTree nodeTree, ContentHashCache contentHashCache) {
+        this.nodeTree = nodeTree;
+        this.contentHashCache = contentHashCache;
+    }
+
+    /**
+     * 初始化线程池与缓冲区
+     */
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        hashPool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Duplicate-Hasher-" + counter.incrementAndGet());
+            // 别因为这玩意卡住程序退出
+            thread.setDaemon(true);
+            return thread;
+        });
+        buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(blockSize));
+    }
+
+    /**
+     * 关闭线程池
+     */
+    @PreDestroy
+    public void destroy() {
+        hashPool.shutdownNow();
+    }
+
+    /**
+     * 查找重复文件<br/>
+     * 每确认一组重复文件就立刻回调一次，不用等全部算完。
+     * @param rootPath 限定范围的目录（为空则查整棵节点树）
+     * @param groupSink 重复文件组的接收者
+     * @return 统计信息
+     */
+    public Map<String, Object> find(String rootPath, Consumer<DuplicateGroup> groupSink) {
+        long start = System.currentTimeMillis();
+        log.info("__________开始查找重复文件：{}", rootPath == null ? "整棵节点树" : rootPath);
+
+        // 第一段：按大小分组，不碰磁盘
+        Map<Long, List<String>> bySize = groupBySize(rootPath);
+
+        // 统计
+        AtomicInteger candidates = new AtomicInteger();
+        AtomicInteger partialHashed = new AtomicInteger();
+        AtomicInteger fullyHashed = new AtomicInteger();
+        AtomicInteger groups = new AtomicInteger();
+        // 回调可能同时从多个哈希线程进来，收口一下
+        Consumer<DuplicateGroup> emit = group -> {
+            synchronized (groupSink) {
+                groupSink.accept(group);
+            }
+            groups.incrementAndGet();
+        };
+
+        List<CompletableFuture<Void>> jobs = new ArrayList<>();
+        for (Map.Entry<Long, List<String>> entry : bySize.entrySet()) {
+            // 大小都没撞上的，肯定不重复
+            if (entry.getValue().size() < 2) continue;
+            long size = entry.getKey();
+            candidates.addAndGet(entry.getValue().size());
+
+            // 首尾两块就能盖住整个文件的小文件，粗哈希就等于全量哈希了，直接一步到位
+            if (size <= 2L * blockSize) {
+                fullyHashed.addAndGet(entry.getValue().size());
+                jobs.add(hashGroup(entry.getValue(), this::fullHash)
+                        .thenAccept(byFull -> emitGroups(size, byFull, emit)));
+                continue;
+            }
+
+            // 第二段：首尾块粗哈希
+            partialHashed.addAndGet(entry.getValue().size());
+            jobs.add(hashGroup(entry.getValue(), path -> partialHash(path, size))
+                    .thenCompose(byPartial -> {
+                        // 第三段：只有粗哈希还撞在一起的才做全量哈希
+                        List<CompletableFuture<Void>> confirms = new ArrayList<>();
+                        for (List<String> survivors : byPartial.values()) {
+                            if (survivors.size() < 2) continue;
+                            fullyHashed.addAndGet(survivors.size());
+                            confirms.add(hashGroup(survivors, this::fullHash)
+                                    .thenAccept(byFull -> emitGroups(size, byFull, emit)));
+                        }
+                        return CompletableFuture.allOf(confirms.toArray(new CompletableFuture[0]));
+                    }));
+        }
+        // 等全部跑完
+        CompletableFuture.allOf(jobs.toArray(new CompletableFuture[0])).join();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("candidates", candidates.get());
+        stats.put("partialHashed", partialHashed.get());
+        stats.put("fullyHashed", fullyHashed.get());
+        stats.put("groups", groups.get());
+        stats.put("elapsed", System.currentTimeMillis() - start);
+        log.info("__________重复文件查找完成：{}", stats);
+        return stats;
+    }
+
+    /**
+     * 按大小分组<br/>
+     * 直接用节点树里记下的文件大小，空文件不算。
+     * @param rootPath 限定范围的目录
+     * @return <文件大小, 路径集合>
+     */
+    private Map<Long, List<String>> groupBySize(String rootPath) {
+        Path root = (rootPath == null || rootPath.isBlank()) ? null : Paths.get(rootPath).toAbsolutePath();
+        Map<Long, List<String>> bySize = new HashMap<>();
+        for (Node node : nodeTree.getTree().values()) {
+            if (!(node instanceof FileNode fileNode)) continue;
+            // 不在范围内
+            if (root != null && !Paths.get(fileNode.getPath()).startsWith(root)) continue;
+            long size;
+            try {
+                size = Long.parseLong(fileNode.getSize());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (size <= 0) continue;
+            bySize.computeIfAbsent(size, k -> new ArrayList<>()).add(fileNode.getPath());
+        }
+        return bySize;
+    }
+
+    /**
+     * 并行哈希一组文件，并按哈希结果重新分组
+     * @param paths 文件路径集合
+     * @param hasher 哈希方式
+     * @return <哈希, 路径集合>
+     */
+    private CompletableFuture<Map<String, List<String>>> hashGroup(List<String> paths, Function<String, String> hasher) {
+        List<CompletableFuture<String>> hashes = new ArrayList<>();
+        for (String path : paths) {
+            hashes.add(CompletableFuture.supplyAsync(() -> hasher.apply(path), hashPool));
+        }
+        return CompletableFuture.allOf(hashes.toArray(new CompletableFuture[0]))
+                .thenApply(v -> {
+                    Map<String, List<String>> byHash = new HashMap<>();
+                    for (int i = 0; i < paths.size(); i++) {
+                        String hash = hashes.get(i).join();
+                        // 读不了的文件就当它不存在
+                        if (hash == null) continue;
+                        byHash.computeIfAbsent(hash, k -> new ArrayList<>()).add(paths.get(i));
+                    }
+                    return byHash;
+                });
+    }
+
+    /**
+     * 推送确认重复的文件组
+     * @param size 文件大小
+     * @param byFull <全量哈希, 路径集合>
+     * @param emit 接收者
+     */
+    private void emitGroups(long size, Map<String, List<String>> byFull, Consumer<DuplicateGroup> emit) {
+        byFull.forEach((hash, paths) -> {
+            if (paths.size() > 1) {
+                emit.accept(new DuplicateGroup(size, hash, paths));
+            }
+        });
+    }
+
+    /**
+     * 首尾块粗哈希<br/>
+     * 只读文件开头一块与结尾一块。
+     * 只是拿来粗筛，用快速哈希就够了，最后认定重复靠的是全量的加密哈希。
+     * @param path 文件路径
+     * @param size 文件大小
+     * @return 哈希（读取失败返回null）
+     */
+    private String partialHash(String path, long size) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            Checksum checksum = new XXHash32();
+            readBlock(channel, 0, checksum);
+            readBlock(channel, size - blockSize, checksum);
+            return Long.toHexString(checksum.getValue());
+        } catch (IOException e) {
+            log.warn("__________粗哈希失败，跳过：{}", path);
+            return null;
+        }
+    }
+
+    /**
+     * 全量哈希<br/>
+     * 走内容哈希缓存，文件没变过就不用再读。
+     * @param path 文件路径
+     * @return 哈希（读取失败返回null）
+     */
+    private String fullHash(String path) {
+        try {
+            return contentHashCache.hash(Paths.get(path), HashAlgorithm.SHA_256);
+        } catch (IOException e) {
+            log.warn("__________全量哈希失败，跳过：{}", path);
+            return null;
+        }
+    }
+
+    /**
+     * 读取文件的指定一块并喂给哈希
+     * @param channel 文件通道
+     * @param position 起始位置
+     * @param checksum 哈希
+     */
+    private void readBlock(FileChannel channel, long position, Checksum checksum) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            // 文件在读的时候变短了
+            if (read < 0) break;
+        }
+        buffer.flip();
+        checksum.update(buffer);
+    }
+}
@@ -10,8 +10,9 @@ package com.ljf.greatplan.general.scanner;
 import com.ljf.greatplan.core.entity.*;
 import com.ljf.greatplan.core.enums.NodeType;
 import com.ljf.greatplan.core.enums.ScanStatus;
-import com.ljf.greatplan.general.listener.fileSystemListener.FileSystemListener;
+import com.ljf.greatplan.general.timeer.NodeMemoryBudget;
 import com.ljf.greatplan.general.tools.generalTools.FileIO;
+import com.ljf.greatplan.general.tools.generalTools.SubtreeSpillStore;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -19,6 +20,8 @@ import org.springframework.stereotype.Component;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.DosFileAttributes;
 import java.util.*;
 
@@ -38,19 +41,19 @@ public class SpecifyDirectoryScanner {
     private FileIO fileIO;
 
     /**
-     * 监听树
+     * 节点树
      */
-    private ListeningTree listeningTree;
+    private NodeTree nodeTree;
 
     /**
-     * 文件系统监听器
+     * 节点树内存预算
      */
-    private FileSystemListener fileSystemListener;
+    private NodeMemoryBudget nodeMemoryBudget;
 
     /**
-     * 节点树
+     * 子树溢出存储
      */
-    private NodeTree nodeTree;
+    private SubtreeSpillStore subtreeSpillStore;
 
     /**
      * 扫描深度
@@ -67,15 +70,15 @@ public class SpecifyDirectoryScanner {
     /**
      * 构造器
      * @param fileIO 文件IO工具类
-     * @param listeningTree 监听树
-     * @param fileSystemListener 文件系统监听器
      * @param nodeTree 节点树
+     * @param nodeMemoryBudget 节点树内存预算
+     * @param subtreeSpillStore 子树溢出存储
      */
-    public SpecifyDirectoryScanner(FileIO fileIO, ListeningTree listeningTree, FileSystemListener fileSystemListener, NodeTree nodeTree) {
+    public SpecifyDirectoryScanner(FileIO fileIO, NodeTree nodeTree, NodeMemoryBudget nodeMemoryBudget, SubtreeSpillStore subtreeSpillStore) {
         this.fileIO = fileIO;
-        this.listeningTree = listeningTree;
-        this.fileSystemListener = fileSystemListener;
         this.nodeTree = nodeTree;
+        this.nodeMemoryBudget = nodeMemoryBudget;
+        this.subtreeSpillStore = subtreeSpillStore;
     }
 
     /**
@@ -90,8 +93,8 @@ public class SpecifyDirectoryScanner {
         String max = maxDepth;
         maxDepth = "0";
         for (String root : roots) {
-            // 塞进树
-            nodeTree.addNodes(initialScanner(root));
+            // 扫描时已经逐个塞进树了，不用再把整棵树塞一遍
+            initialScanner(root);
         }
         // 恢复扫描深度
         maxDepth = max;
@@ -116,7 +119,16 @@ public class SpecifyDirectoryScanner {
         }
 
         // 创建根节点（就是创建目录节点（根一定是目录的嘛））
-        DirectoryNode rootNode = createDirectoryNode(startDir, null);
+        // 展开的是树里已有的目录（比如被折叠过的），就保留它原来的父节点，不然会变成孤儿
+        Node existing = nodeTree.getNodeById(fileIO.generateId(startDir));
+
+        // 被剪掉或折叠过的目录，先看看溢出存储里有没有，有且没过期就直接读回，不用扫盘
+        if (existing != null && existing.getChildNode().isEmpty() && subtreeSpillStore.rehydrate(existing.getId())) {
+            nodeMemoryBudget.onExpanded(existing.getId());
+            return nodeTree.getTree();
+        }
+
+        DirectoryNode rootNode = createDirectoryNode(startDir, existing == null ? null : existing.getParentNode());
         // 加入节点树
         nodeTree.addNode(rootNode);
 
@@ -124,8 +136,9 @@ public class SpecifyDirectoryScanner {
         depthScanner(startDir, rootNode, 0);
         log.info("__________节点树构建完成");
 
-        // 重建路径段与监听树，重建监听组
-        fileSystemListener.requestRebuild("初始扫描器");
+        // 交给内存预算，超了会把冷门的已展开目录折叠掉
+        nodeMemoryBudget.onExpanded(rootNode.getId());
+        // 监听不用重建了，节点加入时文件系统监听器就已经把新目录注册上了
 
         // 返回最终的节点树
         return nodeTree.getTree();
@@ -134,7 +147,7 @@ public class SpecifyDirectoryScanner {
     /**
      * 深度扫描器<br/>
      * 由初始扫描器触发。
-     * 用于目录的递归下探，直到到达深度限制或递归极限。
+     * 用于目录的递归下探，直到到达深度限制（或内存预算）或递归极限。
      * 可以是目录探完的极限，也可以是目录太深搞得递归爆炸:)
      * @param dir 目标目录
      * @param parentNode 这个目录的父节点
@@ -150,32 +163,16 @@ public class SpecifyDirectoryScanner {
             // 是否达到甚至超出深度限制
             if (currentDepth >= limit) {
                 // 到了，那么收一下尾
-                File[] children = dir.listFiles();
-                boolean hasUnscannedDeeper = false;
-                // 若当前目标目录不是空的
-                if (children != null) {
-                    // 遍历这个目录内的所有东西
-                    for (File child : children) {
-                        // 若发现目录
-                        if (child.isDirectory()) {
-                            // 直接用 child（当前目录的直接子目录）多探一层
-                            File[] grandChildren = child.listFiles();
-                            // 还有孙子？！
-                            if (grandChildren != null && grandChildren.length > 0) {
-                                // 标记一下
-                                hasUnscannedDeeper = true;
-                            }
-                        }
-                    }
-                }
-                // 当前目录下存在更深级，那么当前目录的父节点需要设置为部分扫描
-                // 反之，若不存在更深级，那么就设置为完全扫描
-                parentNode.setScanStatus(
-                        hasUnscannedDeeper ? ScanStatus.PARTIAL_SCAN : ScanStatus.FULLY_SCANNED
-                );
+                markUnloaded(dir, parentNode);
                 return;
             }
         }
+        // 节点树已经超出内存预算，不再往下加载（正在点开的这一层除外），等点开时再扫
+        // 扫完后内存预算会折叠冷门的目录腾地方
+        if (currentDepth > 0 && nodeMemoryBudget.isExhausted()) {
+            markUnloaded(dir, parentNode);
+            return;
+        }
 
         // 打开扫描目录
         File[] files = dir.listFiles();
@@ -186,29 +183,10 @@ public class SpecifyDirectoryScanner {
 
         // 遍历当前目录
         for (File file : files) {
-            // 获取Dos文件属性？？？
-            // 为了知道文件是不是奇怪的隐藏文件就要用这玩意
-            DosFileAttributes attrs;
-            try {
-                attrs = Files.readAttributes(file.toPath(), DosFileAttributes.class);
-            } catch (IOException e) {
-                // 如果文件被锁定，或是没有访问权限就跳过得了
-                continue;
-            }
-
             // 根据展示级别过滤
-            // 最低级
-            if (showType.equals("NORMAL")) {
-                if (file.isHidden() || attrs.isSystem()) {
-                    continue;
-                }
-            // 允许一般隐藏文件
-            } else if (showType.equals("SHOW_HIDDEN")) {
-                if (attrs.isSystem()) {
-                    continue;
-                }
+            if (!isVisible(file)) {
+                continue;
             }
-            // 全展示就不用过滤啦
 
             // 若命中目录
             if (file.isDirectory()) {
@@ -259,6 +237,113 @@ public class SpecifyDirectoryScanner {
         }
     }
 
+    /**
+     * 标记子级没加载<br/>
+     * 到了深度限制或者超了内存预算，这一层的子级一个都不加载。
+     * 有（要展示的）子级就只能算部分扫描，等点开时再扫；真是空目录才算完全扫描。
+     * 监听看到部分扫描且没子节点的目录就知道不该往里挂零散的子节点。
+     * @param dir 目标目录
+     * @param dirNode 这个目录的节点
+     */
+    private void markUnloaded(File dir, DirectoryNode dirNode) {
+        File[] children = dir.listFiles();
+        boolean hasUnscannedChildren = false;
+        // 若当前目标目录不是空的
+        if (children != null) {
+            // 遍历这个目录内的所有东西
+            for (File child : children) {
+                if (isVisible(child)) {
+                    // 标记一下
+                    hasUnscannedChildren = true;
+                    break;
+                }
+            }
+        }
+        dirNode.setScanStatus(hasUnscannedChildren ? ScanStatus.PARTIAL_SCAN : ScanStatus.FULLY_SCANNED);
+    }
+
+    /**
+     * 扫描单个条目<br/>
+     * 给监听事件用的：目录里新冒出来一个东西时，只给它建节点挂到父节点下，是目录的话再浅扫一层（只看直接子级）。
+     * 不看扫描深度配置，也不会递归下去。
+     * @param file 新条目
+     * @param parentId 父节点ID
+     * @return 建好的节点（被展示级别过滤掉的就是null）
+     */
+    public Node scanEntry(File file, String parentId) {
+        if (!isVisible(file)) {
+            return null;
+        }
+        if (!file.isDirectory()) {
+            FileNode fileNode = createFileNode(file, parentId);
+            nodeTree.addNode(fileNode);
+            return fileNode;
+        }
+
+        DirectoryNode dirNode = createDirectoryNode(file, parentId);
+        // 浅扫一层
+        File[] children = file.listFiles();
+        List<Node> childNodes = new ArrayList<>();
+        boolean hasDeeper = false;
+        if (children != null) {
+            for (File child : children) {
+                if (!isVisible(child)) {
+                    continue;
+                }
+                Node childNode;
+                if (child.isDirectory()) {
+                    childNode = createDirectoryNode(child, dirNode.getId());
+                    // 子目录还没扫，有东西的话当前目录就只能算部分扫描
+                    String[] grandChildren = child.list();
+                    if (grandChildren != null && grandChildren.length > 0) {
+                        hasDeeper = true;
+                    }
+                } else {
+                    childNode = createFileNode(child, dirNode.getId());
+                }
+                dirNode.getChildNode().add(childNode.getId());
+                childNodes.add(childNode);
+            }
+        }
+        dirNode.setScanStatus(hasDeeper ? ScanStatus.PARTIAL_SCAN : ScanStatus.FULLY_SCANNED);
+        // 先加目录再加子级，总线上（变更日志，页面推送）的消费者不会先看到父节点还不存在的子节点
+        nodeTree.addNode(dirNode);
+        for (Node childNode : childNodes) {
+            nodeTree.addNode(childNode);
+        }
+        return dirNode;
+    }
+
+    /**
+     * 是否展示<br/>
+     * 根据展示级别过滤隐藏文件和系统文件。
+     * 监听的重新同步也用它，保证对比出来的差异和扫描时的口径一致。
+     * @param file 目标文件
+     * @return 是否展示
+     */
+    public boolean isVisible(File file) {
+        // 获取Dos文件属性？？？
+        // 为了知道文件是不是奇怪的隐藏文件就要用这玩意
+        DosFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), DosFileAttributes.class);
+        } catch (IOException e) {
+            // 如果文件被锁定，或是没有访问权限就跳过得了
+            return false;
+        }
+
+        // 根据展示级别过滤
+        // 最低级
+        if (showType.equals("NORMAL")) {
+            return !file.isHidden() && !attrs.isSystem();
+        // 允许一般隐藏文件
+        } else if (showType.equals("SHOW_HIDDEN")) {
+            return !attrs.isSystem();
+        }
+        // 全展示就不用过滤啦
+        return true;
+    }
+
     /**
      * 创建目录节点<br/>
      * 字面意思
@@ -282,6 +367,8 @@ public class SpecifyDirectoryScanner {
         node.setPath(dir.getAbsolutePath());
         // 父节点ID
         node.setParentNode(parentId);
+        // 身份标识（认出改名和移动用）
+        node.setFileKey(fileIO.fileKeyOf(dir));
 
         // 填充特有字段
         // 扫描状态（默认给未扫描）
@@ -314,8 +401,17 @@ public class SpecifyDirectoryScanner {
         node.setParentNode(parentId);
 
         // 填充特有字段
-        // 文件大小
-        node.setSize(String.valueOf(file.length()));
+        // 大小，修改时间，身份标识一次读出来
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            node.setSize(String.valueOf(attrs.size()));
+            node.setLastModified(attrs.lastModifiedTime().toMillis());
+            node.setFileKey(fileIO.fileKeyOf(attrs));
+        } catch (IOException e) {
+            // 读不了属性就按老办法，没有身份标识（认不出移动而已）
+            node.setSize(String.valueOf(file.length()));
+            node.setLastModified(file.lastModified());
+        }
         // 文件类型（后缀嘛）
         node.setFileType(fileIO.getFileExtension(file.getName()));
 
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.timeer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 合并防抖调度器<br/>
+ * 代替原来的"间隔太短就直接不干了"的防抖，那种防抖在一串变化里会把最后一次吞掉，最终状态永远不会被处理。
+ * 这里按键（比如目录）分别防抖：同一个键上来的请求先攒着，安静够一段时间后（尾沿）才把攒下的一起交出去处理；
+ * 一直有请求进来也不会无限拖，从第一条算起最多等到上限就必须处理。
+ * 处理只有一个线程，一串请求最终合成一次处理，且一条都不会丢。
+ * 待处理，被合并，已处理的数量都记着，随时可查。
+ * @param <K> 键
+ * @param <V> 请求内容
+ */
+@Slf4j
+public class CoalescingDebouncer<K, V> {
+    /**
+     * 攒着的请求<br/>
+     * 内部类，一个键一个。
+     */
+    private class Pending {
+        /**
+         * 第一条请求进来的时刻（ms）
+         */
+        private final long firstAt;
+
+        /**
+         * 攒下的请求内容
+         */
+        private final List<V> items = new ArrayList<>();
+
+        /**
+         * 排好的处理任务
+         */
+        private ScheduledFuture<?> future;
+
+        private Pending(long firstAt) {
+            this.firstAt = firstAt;
+        }
+    }
+
+    /**
+     * 安静期（ms），最后一条请求之后这么久没有新的才处理
+     */
+    private final long quietMillis;
+
+    /**
+     * 最长等待（ms），从第一条请求算起最多等这么久
+     */
+    private final long maxWaitMillis;
+
+    /**
+     * 处理逻辑（键，攒下的所有请求内容）
+     */
+    private final BiConsumer<K, List<V>> action;
+
+    /**
+     * 攒着的请求：<键, 攒着的请求>
+     */
+    private final Map<K, Pending> pending = new HashMap<>();
+
+    /**
+     * 唯一的处理线程
+     */
+    private final ScheduledExecutorService worker;
+
+    /**
+     * 收到的请求数
+     */
+    private final AtomicLong submitted = new AtomicLong();
+
+    /**
+     * 被合并进已有待处理中的请求数
+     */
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 已处理的次数
+     */
+    private final AtomicLong executed = new AtomicLong();
+
+    /**
+     * 构造器
+     * @param name 处理线程名
+     * @param quietMillis 安静期（ms）
+     * @param maxWaitMillis 最长等待（ms）
+     * @param action 处理逻辑（键，攒下的所有请求内容）
+     */
+    public CoalescingDebouncer(String name, long quietMillis, long maxWaitMillis, BiConsumer<K, List<V>> action) {
+        this.quietMillis = quietMillis;
+        this.maxWaitMillis = Math.max(quietMillis, maxWaitMillis);
+        this.action = action;
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交请求<br/>
+     * 这个键已经有攒着的就合并进去，并把处理时刻往后推（但不超过最长等待）。
+     * @param key 键
+     * @param items 请求内容
+     */
+    public void submit(K key, Collection<V> items) {
+        long now = System.currentTimeMillis();
+        submitted.incrementAndGet();
+        synchronized (pending) {
+            Pending entry = pending.get(key);
+            if (entry == null) {
+                entry = new Pending(now);
+                pending.put(key, entry);
+            } else {
+                coalesced.incrementAndGet();
+                entry.future.cancel(false);
+            }
+            entry.items.addAll(items);
+            long fireAt = Math.min(now + quietMillis, entry.firstAt + maxWaitMillis);
+            entry.future = worker.schedule(() -> fire(key), Math.max(0, fireAt - now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即处理所有攒着的请求<br/>
+     * 关闭前调一下，免得最后一批丢了。
+     */
+    public void flush() {
+        List<K> keys;
+        synchronized (pending) {
+            keys = new ArrayList<>(pending.keySet());
+        }
+        for (K key : keys) {
+            try {
+                worker.submit(() -> fire(key)).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | RejectedExecutionException e) {
+                log.error("__________防抖请求处理失败：{}", key, e);
+            }
+        }
+    }
+
+    /**
+     * 关闭<br/>
+     * 先把攒着的处理完。
+     */
+    public void shutdown() {
+        flush();
+        worker.shutdown();
+    }
+
+    /**
+     * 获取统计
+     * @return 待处理键数，收到，合并，已处理的请求数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        synchronized (pending) {
+            stats.put("pending", (long) pending.size());
+        }
+        stats.put("submitted", submitted.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("executed", executed.get());
+        return stats;
+    }
+
+    /**
+     * 处理一个键攒下的请求<br/>
+     * 先从待处理里摘下来，处理期间新来的请求会另起一批，不会丢。
+     * @param key 键
+     */
+    private void fire(K key) {
+        Pending entry;
+        synchronized (pending) {
+            entry = pending.remove(key);
+        }
+        if (entry == null) {
+            return;
+        }
+        executed.incrementAndGet();
+        try {
+            action.accept(key, entry.items);
+        } catch (RuntimeException e) {
+            log.error("__________防抖请求处理失败：{}", key, e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.timeer;
+
+import com.ljf.greatplan.core.entity.Node;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 冷子树收集器<br/>
+ * 冷遗忘的裁剪阶段，代替原来的上追（tracedBack）加下探（excavate）。
+ * 原来每个冷末节点都要把兄弟们的整个子树重新下探一遍，同一棵子树一刻度里会被翻很多次，结果还会重复。
+ * 这里"整个子树是否都冷了"只按后序自底向上算一次并记下来，上追时直接查表，每个节点一刻度最多看一次。
+ * 规则和原来一样：一个目录的所有子节点连同各自的子树全冷了，这些子节点就整体剪掉，再接着看这个目录的父目录；
+ * 最后只给出最大的冷子树（祖先已经要被剪的就不再单独列出），没有重复。
+ * 根节点（没有父节点的）永远不剪。
+ * 一刻度用一个，用完就扔。
+ */
+public class ColdSubtreeCollector {
+    /**
+     * 按ID取节点
+     */
+    private final Function<String, Node> lookup;
+
+    /**
+     * 本刻度的时刻（ms），整个刻度按同一时刻算热度
+     */
+    private final long now;
+
+    /**
+     * 子树是否全冷：<节点ID, 是否全冷>
+     */
+    private final Map<String, Boolean> coldMemo = new HashMap<>();
+
+    /**
+     * 子节点全冷的目录：<目录ID, 目录节点>
+     */
+    private final Map<String, Node> emptied = new LinkedHashMap<>();
+
+    /**
+     * 已经上追过的目录
+     */
+    private final Set<String> climbed = new HashSet<>();
+
+    /**
+     * 构造器
+     * @param lookup 按ID取节点
+     * @param now 本刻度的时刻（ms）
+     */
+    public ColdSubtreeCollector(Function<String, Node> lookup, long now) {
+        this.lookup = lookup;
+        this.now = now;
+    }
+
+    /**
+     * 收集<br/>
+     * 从到期的冷节点开始往上追，给出要剪掉的最大冷子树的根。
+     * @param expired 到期的冷节点
+     * @return 要剪掉的子树根（不重复，互不包含）
+     */
+    public List<Node> collect(Collection<Node> expired) {
+        for (Node node : expired) {
+            climb(node);
+        }
+
+        // 父目录自己也要被剪的，它的子节点会跟着一起走，不用单独列出
+        List<Node> roots = new ArrayList<>();
+        for (Node dir : emptied.values()) {
+            if (dir.getParentNode() != null && emptied.containsKey(dir.getParentNode())) {
+                continue;
+            }
+            for (String childId : dir.getChildNode()) {
+                Node child = lookup.apply(childId);
+                if (child != null) {
+                    roots.add(child);
+                }
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * 子树是否全冷<br/>
+     * 后序遍历（显式栈，不怕目录太深），算过的直接查表。
+     * @param root 子树根节点
+     * @return 是否全冷
+     */
+    public boolean isColdSubtree(Node root) {
+        Boolean known = coldMemo.get(root.getId());
+        if (known != null) {
+            return known;
+        }
+        // 栈里放（节点，子节点是否已经压过栈）
+        Deque<Node> stack = new ArrayDeque<>();
+        Set<String> expanded = new HashSet<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.peek();
+            if (coldMemo.containsKey(node.getId())) {
+                stack.pop();
+                continue;
+            }
+            // 自己热着就不用看子节点了
+            if (!isCold(node)) {
+                coldMemo.put(node.getId(), false);
+                stack.pop();
+                continue;
+            }
+            if (expanded.add(node.getId())) {
+                // 第一次见到，先把还没算过的子节点压栈
+                for (String childId : node.getChildNode()) {
+                    Node child = lookup.apply(childId);
+                    if (child != null && !coldMemo.containsKey(childId)) {
+                        stack.push(child);
+                    }
+                }
+                continue;
+            }
+            // 第二次见到，子节点都算完了
+            boolean cold = true;
+            for (String childId : node.getChildNode()) {
+                if (Boolean.FALSE.equals(coldMemo.get(childId))) {
+                    cold = false;
+                    break;
+                }
+            }
+            coldMemo.put(node.getId(), cold);
+            stack.pop();
+        }
+        return coldMemo.get(root.getId());
+    }
+
+    /**
+     * 上追<br/>
+     * 父目录的子节点全冷就记下来，接着追父目录；追过的目录结果不会变，碰到就停。
+     * @param node 起点
+     */
+    private void climb(Node node) {
+        Node current = node;
+        while (current.getParentNode() != null) {
+            Node parent = lookup.apply(current.getParentNode());
+            if (parent == null || !climbed.add(parent.getId())) {
+                return;
+            }
+            for (String childId : parent.getChildNode()) {
+                Node child = lookup.apply(childId);
+                if (child != null && !isColdSubtree(child)) {
+                    return;
+                }
+            }
+            emptied.put(parent.getId(), parent);
+            current = parent;
+        }
+    }
+
+    /**
+     * 节点自己是否冷了
+     * @param node 节点
+     * @return 热度不足1就是冷了
+     */
+    private boolean isCold(Node node) {
+        return node.heatAt(now) < 1;
+    }
+}
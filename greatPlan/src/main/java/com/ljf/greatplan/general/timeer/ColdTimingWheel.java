@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.timeer;
+
+import java.util.*;
+
+/**
+ * 冷却时间轮<br/>
+ * 按节点预计冷掉的时刻，把节点挂进时间轮对应的格子里。
+ * 每次推进只翻指针走过的格子，只有真正到期的节点才会被拿出来，不用每刻度把整棵树翻一遍。
+ * 到期时刻超出一圈的节点照样挂在对应格子里，指针转到时没到期就继续留着等下一圈（哈希时间轮）。
+ * 重新挂载同一个节点时不去旧格子里找，旧的那条在被翻到时发现对不上就直接丢掉。
+ */
+public class ColdTimingWheel {
+    /**
+     * 定时条目（节点ID，到期时刻）
+     */
+    private record Timer(String nodeId, long deadline) {}
+
+    /**
+     * 每格代表的时长（ms）
+     */
+    private final long tickDuration;
+
+    /**
+     * 格子
+     */
+    private final List<List<Timer>> slots;
+
+    /**
+     * 每个节点当前有效的到期时刻（用来识别过期条目）
+     */
+    private final Map<String, Long> deadlines = new HashMap<>();
+
+    /**
+     * 指针（已经处理完的刻度，走完了的才算）
+     */
+    private long currentTick;
+
+    /**
+     * 构造器
+     * @param tickDuration 每格代表的时长（ms）
+     * @param wheelSize 格子数
+     */
+    public ColdTimingWheel(long tickDuration, int wheelSize) {
+        this.tickDuration = tickDuration;
+        this.slots = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.currentTick = System.currentTimeMillis() / tickDuration - 1;
+    }
+
+    /**
+     * 挂载<br/>
+     * 已经挂过的节点会以这次的到期时刻为准。
+     * @param nodeId 节点ID
+     * @param deadline 到期时刻（ms）
+     */
+    public synchronized void schedule(String nodeId, long deadline) {
+        deadlines.put(nodeId, deadline);
+        // 已经过期的就挂到下一格，下次推进马上处理
+        long tick = Math.max(deadline / tickDuration, currentTick + 1);
+        slots.get((int) (tick % slots.size())).add(new Timer(nodeId, deadline));
+    }
+
+    /**
+     * 取消<br/>
+     * 格子里的条目不用管，翻到时对不上就会被丢掉。
+     * @param nodeId 节点ID
+     */
+    public synchronized void cancel(String nodeId) {
+        deadlines.remove(nodeId);
+    }
+
+    /**
+     * 推进<br/>
+     * 把指针推进到当前时刻，收集走过的格子里所有到期的节点。
+     * 当前时刻所在的那一格还没走完，里面没到期的下次推进还会再翻一遍，不会等一整圈。
+     * @param now 当前时刻（ms）
+     * @return 到期的节点ID集合
+     */
+    public synchronized List<String> advance(long now) {
+        List<String> expired = new ArrayList<>();
+        long targetTick = now / tickDuration;
+        // 停太久超过一圈的话，每个格子翻一次就够了
+        long from = Math.max(currentTick + 1, targetTick - slots.size() + 1);
+        for (long tick = from; tick <= targetTick; tick++) {
+            List<Timer> slot = slots.get((int) (tick % slots.size()));
+            Iterator<Timer> iterator = slot.iterator();
+            while (iterator.hasNext()) {
+                Timer timer = iterator.next();
+                Long deadline = deadlines.get(timer.nodeId());
+                // 被取消或者被重新挂载过的旧条目
+                if (deadline == null || deadline != timer.deadline()) {
+                    iterator.remove();
+                    continue;
+                }
+                // 还没到期（后面几圈的），留着
+                if (timer.deadline() > now) {
+                    continue;
+                }
+                iterator.remove();
+                deadlines.remove(timer.nodeId());
+                expired.add(timer.nodeId());
+            }
+        }
+        // 只记到走完了的那一格
+        currentTick = Math.max(currentTick, targetTick - 1);
+        return expired;
+    }
+
+    /**
+     * 挂着的节点数
+     * @return 节点数
+     */
+    public synchronized int size() {
+        return deadlines.size();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.timeer;
+
+/**
+ * 频率草图<br/>
+ * Count-Min Sketch，用很小的固定内存估算每个key被访问过多少次（只会高估不会低估）。
+ * 每个计数器只有4位（最多记到15），16个计数器塞进一个long里。
+ * 累计访问次数达到采样量时所有计数器减半，老的热门会慢慢让位给新的热门。
+ * 给节点树内存预算做准入与淘汰比较用。
+ */
+public class FrequencySketch {
+    /**
+     * 四个哈希函数的种子
+     */
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    /**
+     * 计数器表（每个long装16个4位计数器）
+     */
+    private final long[] table;
+
+    /**
+     * 表下标掩码
+     */
+    private final int tableMask;
+
+    /**
+     * 采样量（累计这么多次访问后减半）
+     */
+    private final int sampleSize;
+
+    /**
+     * 当前累计访问次数
+     */
+    private int size;
+
+    /**
+     * 构造器
+     * @param expectedItems 预计要追踪的key数量
+     */
+    public FrequencySketch(int expectedItems) {
+        int length = Integer.highestOneBit(Math.max(expectedItems, 16) - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * length;
+    }
+
+    /**
+     * 估算访问频率
+     * @param key 键
+     * @return 频率（0~15）
+     */
+    public synchronized int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 记一次访问
+     * @param key 键
+     */
+    public synchronized void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 指定计数器加一（满了就不加）
+     * @param index 表下标
+     * @param counter 这个long里的第几个计数器
+     * @return 是否加上了
+     */
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 所有计数器减半
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+        }
+        size >>>= 1;
+    }
+
+    /**
+     * 第i个哈希函数对应的表下标
+     * @param hash 打散后的哈希
+     * @param i 第几个哈希函数
+     * @return 表下标
+     */
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    /**
+     * 打散哈希，免得质量差的hashCode扎堆
+     * @param x 原哈希
+     * @return 打散后的哈希
+     */
+    private int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
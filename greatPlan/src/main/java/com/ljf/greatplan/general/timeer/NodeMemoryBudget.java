@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.timeer;
+
+import com.ljf.greatplan.core.entity.Node;
+import com.ljf.greatplan.core.entity.NodeTree;
+import com.ljf.greatplan.core.enums.NodeChangeCause;
+import com.ljf.greatplan.core.enums.NodeType;
+import com.ljf.greatplan.general.tools.generalTools.SubtreeSpillStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 节点树内存预算<br/>
+ * 冷遗忘只管热度归零的节点，管不住内存：一次深扫描就能在任何节点冷掉之前把堆塞满。
+ * 所以给节点树定一个预算（节点数或估算字节数），超了就把冷门的已展开目录折叠回部分扫描的占位节点。
+ * 挑谁折叠用W-TinyLFU的思路：
+ * 刚展开的目录先进窗口区，窗口区按最近使用排队，不参与频率比较，免得新展开的目录还没被点过就被踢掉；
+ * 窗口区满了，最老的那个要进主区就得和主区最久没用的那个比访问频率，谁低谁被折叠。
+ * 访问频率来自点击（就是点击热度的来源），用频率草图记，草图会定期减半，老热门会慢慢让位。
+ * 频率一样时再比当前点击热度。
+ * 最近一次展开的目录（用户正在看的）不管窗口区多小都不折叠，免得刚点开一个大目录就被折回去。
+ * 扫描器在扫描途中也会看预算，超了就不再往下加载，不会先把整棵子树读进来再折叠。
+ */
+@Component
+@Slf4j
+public class NodeMemoryBudget {
+    /**
+     * 节点树
+     */
+    private final NodeTree nodeTree;
+
+    /**
+     * 子树溢出存储
+     */
+    private final SubtreeSpillStore subtreeSpillStore;
+
+    /**
+     * 节点数上限（0为不限）
+     */
+    @Value("${great-plan.node-budget.max-nodes}")
+    private Long maxNodes;
+
+    /**
+     * 估算内存上限（byte，0为不限）
+     */
+    @Value("${great-plan.node-budget.max-bytes}")
+    private Long maxBytes;
+
+    /**
+     * 窗口区占比（%）
+     */
+    @Value("${great-plan.node-budget.window-percent}")
+    private Integer windowPercent;
+
+    /**
+     * 窗口区（目录ID，展开时的子树节点数），按最近使用排序，最老的在前
+     */
+    private final LinkedHashMap<String, Integer> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 主区（目录ID，展开时的子树节点数），按最近使用排序，最老的在前
+     */
+    private final LinkedHashMap<String, Integer> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 窗口区当前节点数
+     */
+    private long windowWeight = 0;
+
+    /**
+     * 最近一次展开的目录ID（不折叠）
+     */
+    private String lastExpanded;
+
+    /**
+     * 访问频率草图
+     */
+    private final FrequencySketch sketch = new FrequencySketch(4096);
+
+    /**
+     * 构造器
+     * @param nodeTree 节点树
+     * @param subtreeSpillStore 子树溢出存储
+     */
+    public NodeMemoryBudget(NodeTree nodeTree, SubtreeSpillStore subtreeSpillStore) {
+        this.nodeTree = nodeTree;
+        this.subtreeSpillStore = subtreeSpillStore;
+    }
+
+    /**
+     * 目录被展开（扫描）<br/>
+     * 放进窗口区，然后检查预算。
+     * @param dirId 目录节点ID
+     */
+    public synchronized void onExpanded(String dirId) {
+        Node dir = nodeTree.getNodeById(dirId);
+        if (dir == null) {
+            return;
+        }
+        sketch.increment(dirId);
+        // 重新展开的，先从原来的地方拿出来
+        main.remove(dirId);
+        Integer old = window.remove(dirId);
+        if (old != null) {
+            windowWeight -= old;
+        }
+        int weight = subtreeSize(dir);
+        window.put(dirId, weight);
+        windowWeight += weight;
+        lastExpanded = dirId;
+        enforce();
+    }
+
+    /**
+     * 预算是否已经用完<br/>
+     * 给扫描器在扫描途中看的，只读节点树的计数，不折叠。
+     * @return 是否超了
+     */
+    public boolean isExhausted() {
+        return overBudget();
+    }
+
+    /**
+     * 节点被访问（点击）<br/>
+     * 记频率，并刷新所属目录在队列里的位置。
+     * 点的是文件就算在它的父目录头上。
+     * @param nodeId 节点ID
+     */
+    public synchronized void onAccess(String nodeId) {
+        Node node = nodeTree.getNodeById(nodeId);
+        if (node == null) {
+            return;
+        }
+        String unitId = node.getNodeType() == NodeType.DIRECTORY ? nodeId : node.getParentNode();
+        if (unitId == null) {
+            return;
+        }
+        sketch.increment(unitId);
+        // access-order的LinkedHashMap，get一下就挪到队尾了
+        if (window.get(unitId) == null) {
+            main.get(unitId);
+        }
+    }
+
+    /**
+     * 执行预算<br/>
+     * 超预算就一直折叠，直到回到预算内或者没东西可以折叠。
+     */
+    public synchronized void enforce() {
+        long nodeCapacity = nodeCapacity();
+        long windowCapacity = Math.max(1, nodeCapacity * windowPercent / 100);
+        int collapsed = 0;
+
+        // 窗口区超了，最老的往主区挤（最近一次展开的不动）
+        while (windowWeight > windowCapacity) {
+            String candidate = eldest(window);
+            if (candidate == null) {
+                break;
+            }
+            int weight = window.remove(candidate);
+            windowWeight -= weight;
+            if (!overBudget()) {
+                // 没超预算，直接进主区
+                main.put(candidate, weight);
+                continue;
+            }
+            // 超了，和主区最久没用的比一比
+            String victim = eldest(main);
+            if (victim != null && admit(candidate, victim)) {
+                main.remove(victim);
+                collapsed += collapse(victim);
+                main.put(candidate, weight);
+            } else {
+                collapsed += collapse(candidate);
+            }
+        }
+
+        // 还是超，从主区最久没用的开始折叠，主区空了再动窗口区
+        while (overBudget()) {
+            String victim = eldest(main);
+            if (victim != null) {
+                main.remove(victim);
+            } else {
+                victim = eldest(window);
+                if (victim == null) {
+                    break;
+                }
+                windowWeight -= window.remove(victim);
+            }
+            collapsed += collapse(victim);
+        }
+
+        if (collapsed > 0) {
+            log.info("__________节点树超出内存预算，折叠了{}个节点，当前{}个节点，估算{}byte",
+                    collapsed, nodeTree.getTree().size(), nodeTree.getEstimatedBytes());
+        }
+    }
+
+    /**
+     * 准入判断<br/>
+     * 候选的访问频率比受害者高才能进主区，一样高就比当前点击热度。
+     * @param candidateId 候选目录ID
+     * @param victimId 受害目录ID
+     * @return 是否让候选进主区（踢掉受害者）
+     */
+    private boolean admit(String candidateId, String victimId) {
+        int candidateFrequency = sketch.frequency(candidateId);
+        int victimFrequency = sketch.frequency(victimId);
+        if (candidateFrequency != victimFrequency) {
+            return candidateFrequency > victimFrequency;
+        }
+        return heatOf(candidateId) > heatOf(victimId);
+    }
+
+    /**
+     * 折叠目录<br/>
+     * 折叠前先溢出到磁盘，下次展开时直接读回。
+     * @param dirId 目录节点ID
+     * @return 折叠掉的节点数
+     */
+    private int collapse(String dirId) {
+        subtreeSpillStore.spill(dirId);
+        int removed = nodeTree.withCause(NodeChangeCause.PRUNE, () -> nodeTree.collapse(dirId));
+        // 嵌套在里面的已展开目录已经跟着没了，从队列里清掉
+        window.keySet().removeIf(id -> nodeTree.getNodeById(id) == null);
+        main.keySet().removeIf(id -> nodeTree.getNodeById(id) == null);
+        windowWeight = window.values().stream().mapToLong(Integer::longValue).sum();
+        return removed;
+    }
+
+    /**
+     * 是否超预算
+     * @return 是否超了
+     */
+    private boolean overBudget() {
+        return (maxNodes > 0 && nodeTree.getTree().size() > maxNodes)
+                || (maxBytes > 0 && nodeTree.getEstimatedBytes() > maxBytes);
+    }
+
+    /**
+     * 折算成节点数的预算<br/>
+     * 只配了字节预算的，按当前平均每个节点的估算大小折算。
+     * @return 节点数预算
+     */
+    private long nodeCapacity() {
+        if (maxNodes > 0) {
+            return maxNodes;
+        }
+        if (maxBytes > 0) {
+            int size = nodeTree.getTree().size();
+            long average = size == 0 ? 256 : Math.max(1, nodeTree.getEstimatedBytes() / size);
+            return maxBytes / average;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * 取队列里最久没用的（顺手把已经不在树里的清掉）<br/>
+     * 最近一次展开的目录跳过，不拿出来折叠。
+     * @param queue 队列
+     * @return 目录ID（没有就是null）
+     */
+    private String eldest(LinkedHashMap<String, Integer> queue) {
+        Iterator<Map.Entry<String, Integer>> iterator = queue.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> entry = iterator.next();
+            if (entry.getKey().equals(lastExpanded)) {
+                continue;
+            }
+            Node node = nodeTree.getNodeById(entry.getKey());
+            if (node != null && !node.getChildNode().isEmpty()) {
+                return entry.getKey();
+            }
+            // 已经被冷遗忘剪掉了，或者已经没有子节点了
+            iterator.remove();
+            if (queue == window) {
+                windowWeight -= entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 当前点击热度
+     * @param nodeId 节点ID
+     * @return 热度（不在树里就是0）
+     */
+    private int heatOf(String nodeId) {
+        Node node = nodeTree.getNodeById(nodeId);
+        return node == null ? 0 : node.getClickHeat();
+    }
+
+    /**
+     * 子树节点数
+     * @param node 子树根节点
+     * @return 节点数（不含自己）
+     */
+    private int subtreeSize(Node node) {
+        int size = 0;
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            for (String childId : stack.pop().getChildNode()) {
+                Node child = nodeTree.getNodeById(childId);
+                if (child != null) {
+                    size++;
+                    stack.push(child);
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,729 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.generalTools;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ljf.greatplan.core.entity.Node;
+import com.ljf.greatplan.core.entity.NodeChange;
+import com.ljf.greatplan.core.enums.BusEventType;
+import com.ljf.greatplan.core.enums.NodeChangeCause;
+import com.ljf.greatplan.core.enums.NodeChangeKind;
+import com.ljf.greatplan.core.enums.NodeType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * 变更日志<br/>
+ * 把节点树上应用过的每一次文件系统变更按顺序追加写进本地的段文件（一行一条Json），给外部工具跟着读，它们就不用自己再递归监听一遍。
+ * 只记起因是文件系统的变更；扫描展开，剪枝折叠，溢出读回这些只是节点树自己加减节点，磁盘上什么都没变，不记。
+ * 每条记录有一个一直往上涨的偏移量，读的一方记住读到哪，断了以后从那个偏移量接着读（也可以把偏移量按名字提交到这里保存）。
+ * 变更从事件总线上收（消费者journal），一批只fsync一次（组提交），落盘之后才让读的一方看到。
+ * 段文件写满就换一个新的，文件名是它第一条记录的偏移量；旧段按总大小和年龄定时删掉，正在写的段不删。
+ * 要读的偏移量已经被删掉了，就从还在的最早一条开始，并告诉读的一方中间断了（gap）。
+ */
+@Component
+@Slf4j
+public class ChangeJournal {
+    /**
+     * 变更记录<br/>
+     * 偏移量必须是第一个字段，读的时候只看行首就能拿到偏移量，不用整行解析。
+     * @param o 偏移量
+     * @param k 变更类型
+     * @param pid 子节点集发生变化的父节点ID，根节点为null
+     * @param n 涉及的节点
+     * @param t 变更时刻（ms）
+     */
+    public record ChangeRecord(long o, NodeChangeKind k, String pid, List<ChangedNode> n, long t) {}
+
+    /**
+     * 变更涉及的节点
+     * @param id 节点ID
+     * @param p 节点路径
+     * @param y 节点类型
+     */
+    public record ChangedNode(String id, String p, NodeType y) {}
+
+    /**
+     * 读取游标<br/>
+     * 内部类，一个读的一方一个，记着下一条要读的偏移量和它在哪个段的哪个位置。
+     */
+    private static class Cursor {
+        /**
+         * 下一条要读的偏移量
+         */
+        private long next;
+
+        /**
+         * 当前段（第一条记录的偏移量，-1为还没定位）
+         */
+        private long base = -1;
+
+        /**
+         * 在当前段里的字节位置
+         */
+        private long position;
+
+        /**
+         * 是否因为要读的段已经被删了而跳过了一段
+         */
+        private boolean gap;
+    }
+
+    /**
+     * 段文件名后缀
+     */
+    private static final String SUFFIX = ".ndjson";
+
+    /**
+     * 提交的偏移量文件名
+     */
+    private static final String CONSUMERS_FILE = "consumers.json";
+
+    /**
+     * 读取时每次从段文件读的量（byte）
+     */
+    private static final int READ_CHUNK = 65536;
+
+    /**
+     * 推送时每次最多读多少条
+     */
+    private static final int READ_BATCH = 256;
+
+    /**
+     * 事件总线
+     */
+    private final RingEventBus eventBus;
+
+    /**
+     * 段文件目录
+     */
+    @Value("${great-plan.change-journal.path}")
+    private String journalPath;
+
+    /**
+     * 单个段文件大小上限（byte）
+     */
+    @Value("${great-plan.change-journal.segment-size}")
+    private Long segmentSize;
+
+    /**
+     * 所有段加起来的大小上限（byte），超了从最旧的删
+     */
+    @Value("${great-plan.change-journal.retention-bytes}")
+    private Long retentionBytes;
+
+    /**
+     * 段的最长保留时间（ms），最后一次写入早于这个的删掉
+     */
+    @Value("${great-plan.change-journal.retention-age}")
+    private Long retentionAge;
+
+    /**
+     * 没有新记录时多久发一次心跳（ms），顺便发现断开的连接
+     */
+    @Value("${great-plan.change-journal.heartbeat}")
+    private Long heartbeat;
+
+    /**
+     * 所有段：<第一条记录的偏移量, 段文件>
+     */
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * 提交的偏移量：<读的一方的名字, 下一条要读的偏移量>
+     */
+    private final Map<String, Long> committed = new ConcurrentHashMap<>();
+
+    /**
+     * 正在写的段
+     */
+    private FileChannel channel;
+
+    /**
+     * 正在写的段已经落盘的大小（byte）
+     */
+    private long activeSize;
+
+    /**
+     * 下一条记录的偏移量（只在写的线程里改）
+     */
+    private long nextOffset;
+
+    /**
+     * 已经落盘的最大偏移量，读的一方只能读到这里
+     */
+    private volatile long durable = -1;
+
+    /**
+     * 这一批攒着还没写的记录
+     */
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * 有新记录落盘时叫醒在等的读的一方
+     */
+    private final Object appended = new Object();
+
+    /**
+     * 推送线程
+     */
+    private ExecutorService readers;
+
+    /**
+     * Json处理
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 构造器
+     * @param eventBus 事件总线
+     */
+    public ChangeJournal(RingEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * 加载并订阅<br/>
+     * 找出已有的段，把最后一段写一半的尾巴截掉，接着它的偏移量往下写。
+     */
+    @PostConstruct
+    public void start() {
+        Path dir = Paths.get(journalPath);
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> stream = Files.list(dir)) {
+                stream.forEach(path -> {
+                    long base = baseOf(path);
+                    if (base >= 0) {
+                        segments.put(base, path);
+                    }
+                });
+            }
+            loadCommitted();
+            if (segments.isEmpty()) {
+                openSegment(0);
+            } else {
+                recover(segments.lastKey(), segments.lastEntry().getValue());
+            }
+        } catch (IOException e) {
+            // 日志打不开不影响节点树，只是外部工具收不到变更
+            channel = null;
+            log.error("__________变更日志加载失败，变更将不会被记录", e);
+        }
+        readers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "Change-Journal-Reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        eventBus.subscribe("journal", this::onEvent);
+        log.info("__________变更日志已加载，{}个段，下一条偏移量{}", segments.size(), nextOffset);
+    }
+
+    /**
+     * 停止<br/>
+     * 把攒着的写掉，关掉段文件。
+     */
+    @PreDestroy
+    public void stop() {
+        readers.shutdownNow();
+        synchronized (this) {
+            flush();
+            closeChannel();
+        }
+    }
+
+    /**
+     * 订阅<br/>
+     * 从指定的偏移量开始推（先把落盘的旧记录推完，再跟着推新的）。
+     * 没给偏移量就用这个名字提交过的偏移量，再没有就只推订阅之后的。
+     * 事件：change（一条记录，事件ID是它的偏移量），gap（要读的已经被删了，带着实际从哪开始）。
+     * @param offset 开始的偏移量（可以为null）
+     * @param consumer 读的一方的名字（可以为null）
+     * @return SSE推送器
+     */
+    public SseEmitter subscribe(Long offset, String consumer) {
+        Cursor cursor = new Cursor();
+        if (offset != null) {
+            cursor.next = Math.max(0, offset);
+        } else if (consumer != null && committed.containsKey(consumer)) {
+            cursor.next = committed.get(consumer);
+        } else {
+            cursor.next = durable + 1;
+        }
+        SseEmitter emitter = new SseEmitter(0L);
+        AtomicBoolean closed = new AtomicBoolean(false);
+        emitter.onCompletion(() -> closed.set(true));
+        emitter.onTimeout(() -> closed.set(true));
+        emitter.onError(e -> closed.set(true));
+        readers.execute(() -> follow(cursor, emitter, closed));
+        log.info("__________外部订阅变更日志，从偏移量{}开始", cursor.next);
+        return emitter;
+    }
+
+    /**
+     * 提交偏移量<br/>
+     * 记下这个名字下次从哪开始读，写进文件，重启后还在。
+     * @param consumer 读的一方的名字
+     * @param offset 下一条要读的偏移量
+     */
+    public synchronized void commit(String consumer, long offset) {
+        committed.put(consumer, offset);
+        Path path = Paths.get(journalPath, CONSUMERS_FILE);
+        Path temp = Paths.get(journalPath, CONSUMERS_FILE + ".tmp");
+        try {
+            Files.write(temp, objectMapper.writeValueAsBytes(committed));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("__________变更日志偏移量保存失败：{}", consumer, e);
+        }
+    }
+
+    /**
+     * 获取统计
+     * @return 最早偏移量，最新偏移量，段数，总大小，提交过偏移量的读的一方数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        long bytes = 0;
+        for (Path segment : segments.values()) {
+            try {
+                bytes += Files.size(segment);
+            } catch (IOException e) {
+                // 刚被删掉
+            }
+        }
+        stats.put("earliestOffset", segments.isEmpty() ? -1 : segments.firstKey());
+        stats.put("latestOffset", durable);
+        stats.put("segments", (long) segments.size());
+        stats.put("bytes", bytes);
+        stats.put("consumers", (long) committed.size());
+        return stats;
+    }
+
+    /**
+     * 按大小和年龄删旧段<br/>
+     * 从最旧的开始删，正在写的段不删。
+     */
+    @Scheduled(fixedDelayString = "${great-plan.change-journal.retention-interval}")
+    public void retain() {
+        // 启动失败时一个段都没有
+        if (segments.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<Long, Long> sizes = new LinkedHashMap<>();
+        long total = 0;
+        for (Map.Entry<Long, Path> entry : segments.entrySet()) {
+            try {
+                long size = Files.size(entry.getValue());
+                sizes.put(entry.getKey(), size);
+                total += size;
+            } catch (IOException e) {
+                sizes.put(entry.getKey(), 0L);
+            }
+        }
+        int removed = 0;
+        for (Map.Entry<Long, Long> entry : sizes.entrySet()) {
+            Long base = entry.getKey();
+            if (base.equals(segments.lastKey())) {
+                break;
+            }
+            Path segment = segments.get(base);
+            long lastModified;
+            try {
+                lastModified = Files.getLastModifiedTime(segment).toMillis();
+            } catch (IOException e) {
+                lastModified = 0;
+            }
+            if (total <= retentionBytes && now - lastModified <= retentionAge) {
+                break;
+            }
+            segments.remove(base);
+            try {
+                Files.deleteIfExists(segment);
+            } catch (IOException e) {
+                log.error("__________变更日志旧段删除失败：{}", segment, e);
+            }
+            total -= entry.getValue();
+            removed++;
+        }
+        if (removed > 0) {
+            log.info("__________变更日志删掉了{}个旧段，最早偏移量{}", removed, segments.firstKey());
+        }
+    }
+
+    /**
+     * 处理总线事件<br/>
+     * 在总线的消费者线程里调用，变更攒进这一批，批尾一起写。
+     * @param event 事件
+     * @param sequence 序号
+     * @param endOfBatch 是否这一批的最后一个
+     */
+    private void onEvent(RingEventBus.Slot event, long sequence, boolean endOfBatch) {
+        if (event.getType() == BusEventType.NODE_CHANGE
+                && event.getPayload() instanceof NodeChange change
+                && change.getCause() == NodeChangeCause.FILESYSTEM) {
+            append(change);
+        }
+        if (endOfBatch) {
+            flush();
+        }
+    }
+
+    /**
+     * 把一次变更做成记录攒进这一批
+     * @param change 变更记录
+     */
+    private synchronized void append(NodeChange change) {
+        if (channel == null) {
+            return;
+        }
+        List<ChangedNode> nodes = new ArrayList<>(change.getNodes().size());
+        for (Node node : change.getNodes()) {
+            nodes.add(new ChangedNode(node.getId(), node.getPath(), node.getNodeType()));
+        }
+        ChangeRecord record = new ChangeRecord(nextOffset, change.getKind(), change.getParentId(), nodes, change.getAt());
+        try {
+            pending.append(objectMapper.writeValueAsString(record)).append('\n');
+            nextOffset++;
+        } catch (IOException e) {
+            log.error("__________变更记录序列化失败：{}", change.getParentId(), e);
+        }
+    }
+
+    /**
+     * 写一批<br/>
+     * 整批只fsync一次，落盘后才推进可读的偏移量并叫醒读的一方；段写满了就换新段。
+     * 写失败就把段截回写之前的大小，这一批丢掉（偏移量留空，读的一方会直接跳过）。
+     */
+    private synchronized void flush() {
+        if (pending.isEmpty() || channel == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        pending.setLength(0);
+        int length = buffer.remaining();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            activeSize += length;
+        } catch (IOException e) {
+            log.error("__________变更日志写入失败，丢失到偏移量{}为止的记录", nextOffset - 1, e);
+            try {
+                channel.truncate(activeSize);
+            } catch (IOException ex) {
+                log.error("__________变更日志截断失败", ex);
+            }
+            return;
+        }
+        durable = nextOffset - 1;
+        synchronized (appended) {
+            appended.notifyAll();
+        }
+        if (activeSize >= segmentSize) {
+            closeChannel();
+            try {
+                openSegment(nextOffset);
+            } catch (IOException e) {
+                log.error("__________变更日志换段失败，变更将不会被记录", e);
+            }
+        }
+    }
+
+    /**
+     * 跟着读并推送<br/>
+     * 在推送线程里跑，直到连接断开。读到头了就等新记录落盘，等太久发一次心跳。
+     * @param cursor 读取游标
+     * @param emitter SSE推送器
+     * @param closed 连接是否已经断开
+     */
+    private void follow(Cursor cursor, SseEmitter emitter, AtomicBoolean closed) {
+        try {
+            while (!closed.get()) {
+                long requested = cursor.next;
+                List<String> lines = read(cursor, READ_BATCH);
+                if (cursor.gap) {
+                    cursor.gap = false;
+                    emitter.send(SseEmitter.event().name("gap").data(Map.of("requested", requested, "earliest", cursor.next)));
+                }
+                if (lines.isEmpty()) {
+                    synchronized (appended) {
+                        if (durable < cursor.next) {
+                            appended.wait(heartbeat);
+                        }
+                    }
+                    if (durable < cursor.next) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                    }
+                    continue;
+                }
+                for (String line : lines) {
+                    emitter.send(SseEmitter.event().id(String.valueOf(offsetOf(line))).name("change").data(line));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // 连接断开了
+            emitter.completeWithError(e);
+        } catch (InterruptedException e) {
+            // 关闭时会被打断
+            Thread.currentThread().interrupt();
+            emitter.complete();
+        }
+    }
+
+    /**
+     * 从游标处往后读<br/>
+     * 只读已经落盘的，读完一段接着读下一段；游标所在的段被删了就重新定位。
+     * @param cursor 读取游标
+     * @param max 最多读多少条
+     * @return 读到的记录（原样的Json行）
+     */
+    private List<String> read(Cursor cursor, int max) {
+        List<String> lines = new ArrayList<>();
+        long limit = durable;
+        while (lines.size() < max && cursor.next <= limit) {
+            Path segment = cursor.base < 0 ? null : segments.get(cursor.base);
+            if (segment == null) {
+                if (!seek(cursor)) {
+                    break;
+                }
+                continue;
+            }
+            boolean end;
+            try {
+                end = readSegment(segment, cursor, max, limit, lines);
+            } catch (NoSuchFileException e) {
+                // 读的时候刚好被删了
+                cursor.base = -1;
+                continue;
+            } catch (IOException e) {
+                log.error("__________变更日志读取失败：{}", segment, e);
+                break;
+            }
+            // 读够了，或者碰到还没落盘的
+            if (!end) {
+                break;
+            }
+            // 这段读完了，有下一段就换过去（有下一段说明这段已经写满关掉了）
+            Long higher = segments.higherKey(cursor.base);
+            if (higher == null) {
+                break;
+            }
+            cursor.base = higher;
+            cursor.position = 0;
+            if (higher > cursor.next) {
+                cursor.next = higher;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * 定位游标<br/>
+     * 找到包含下一条偏移量的段，从段头开始读（段里比它小的会被跳过）；比最早的段还早就从最早的开始，并标记中间断了。
+     * @param cursor 读取游标
+     * @return 是否定位到了
+     */
+    private boolean seek(Cursor cursor) {
+        Map.Entry<Long, Path> floor = segments.floorEntry(cursor.next);
+        if (floor == null) {
+            if (segments.isEmpty()) {
+                return false;
+            }
+            cursor.base = segments.firstKey();
+            cursor.next = cursor.base;
+            cursor.gap = true;
+        } else {
+            cursor.base = floor.getKey();
+        }
+        cursor.position = 0;
+        return true;
+    }
+
+    /**
+     * 读一个段<br/>
+     * 从游标的字节位置往后按行切，偏移量比要读的小的跳过，比已落盘的大的（或者没写完的半行）停下。
+     * @param segment 段文件
+     * @param cursor 读取游标
+     * @param max 最多读到多少条
+     * @param limit 已落盘的最大偏移量
+     * @param lines 读到的记录
+     * @return 是否读到了段尾（读够了或者碰到没落盘的为false）
+     * @throws IOException 段读不了
+     */
+    private boolean readSegment(Path segment, Cursor cursor, int max, long limit, List<String> lines) throws IOException {
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            in.position(cursor.position);
+            ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (in.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b != '\n') {
+                        line.write(b);
+                        continue;
+                    }
+                    String text = line.toString(StandardCharsets.UTF_8);
+                    long offset = offsetOf(text);
+                    if (offset > limit) {
+                        return false;
+                    }
+                    cursor.position += line.size() + 1;
+                    line.reset();
+                    if (offset < cursor.next) {
+                        continue;
+                    }
+                    lines.add(text);
+                    cursor.next = offset + 1;
+                    if (lines.size() >= max) {
+                        return false;
+                    }
+                }
+                buffer.clear();
+            }
+            return line.size() == 0;
+        }
+    }
+
+    /**
+     * 取一行记录的偏移量<br/>
+     * 偏移量是第一个字段，直接从行首截。
+     * @param line 记录
+     * @return 偏移量（坏行为-1）
+     */
+    private long offsetOf(String line) {
+        int start = line.indexOf(':') + 1;
+        int end = line.indexOf(',', start);
+        if (start <= 0 || end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(line.substring(start, end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 恢复最后一段<br/>
+     * 读到最后一条完整的记录为止，后面写一半断电留下的截掉，然后接着追加。
+     * @param base 段的第一条记录的偏移量
+     * @param segment 段文件
+     * @throws IOException 读写不了
+     */
+    private void recover(long base, Path segment) throws IOException {
+        long last = base - 1;
+        long good = 0;
+        byte[] bytes = Files.readAllBytes(segment);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            long offset = offsetOf(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            if (offset < 0) {
+                break;
+            }
+            last = offset;
+            good = i + 1;
+            start = i + 1;
+        }
+        channel = FileChannel.open(segment, StandardOpenOption.WRITE);
+        if (good < bytes.length) {
+            log.warn("__________变更日志最后一段有损坏的尾巴，已截掉{}字节", bytes.length - good);
+            channel.truncate(good);
+        }
+        channel.position(good);
+        activeSize = good;
+        nextOffset = last + 1;
+        durable = last;
+    }
+
+    /**
+     * 打开一个新段
+     * @param base 段的第一条记录的偏移量
+     * @throws IOException 建不了
+     */
+    private void openSegment(long base) throws IOException {
+        Path segment = Paths.get(journalPath, String.format("%020d", base) + SUFFIX);
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeSize = channel.size();
+        nextOffset = base;
+        segments.put(base, segment);
+    }
+
+    /**
+     * 关闭正在写的段
+     */
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("__________变更日志关闭失败", e);
+        }
+        channel = null;
+    }
+
+    /**
+     * 读取提交过的偏移量
+     */
+    private void loadCommitted() {
+        Path path = Paths.get(journalPath, CONSUMERS_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            committed.putAll(objectMapper.readValue(path.toFile(), new TypeReference<Map<String, Long>>() {}));
+        } catch (IOException e) {
+            log.error("__________变更日志偏移量读取失败，读的一方要自己给偏移量", e);
+        }
+    }
+
+    /**
+     * 从段文件名取第一条记录的偏移量
+     * @param path 文件
+     * @return 偏移量（不是段文件为-1）
+     */
+    private long baseOf(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.generalTools;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ljf.greatplan.core.enums.HashAlgorithm;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.XXHash32;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Checksum;
+
+/**
+ * 内容哈希缓存<br/>
+ * 给所有需要对文件内容做哈希的地方共用（插件资源版本号，重复文件查找等）。
+ * 以（路径，大小，修改时间，fileKey）校验缓存是否还有效，四样都没变就认为内容没变，直接给缓存的哈希，不再读文件。
+ * 缓存会定时落盘，重启后接着用；落盘时顺手把文件已经没了的条目清掉，缓存不会只涨不落。
+ */
+@Component
+@Slf4j
+public class ContentHashCache {
+    /**
+     * 缓存条目<br/>
+     * 内部类，记录算哈希时文件的状态，和已经算过的各种哈希。
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Entry {
+        /**
+         * 文件大小
+         */
+        private long size;
+
+        /**
+         * 最后修改时间（ms）
+         */
+        private long lastModified;
+
+        /**
+         * 文件系统给的唯一标识（如inode，windows上可能没有）
+         */
+        private String fileKey;
+
+        /**
+         * 已算过的哈希：<算法, 哈希>
+         */
+        private ConcurrentHashMap<HashAlgorithm, String> hashes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 缓存文件地址
+     */
+    @Value("${great-plan.hash-cache.path}")
+    private String cachePath;
+
+    /**
+     * 直接缓冲区大小（byte）
+     */
+    @Value("${great-plan.hash-cache.buffer-size}")
+    private Integer bufferSize;
+
+    /**
+     * 缓存表：<文件绝对路径, 缓存条目>
+     */
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 是否有还没落盘的改动
+     */
+    private volatile boolean dirty = false;
+
+    /**
+     * 直接缓冲区（每个线程一块）
+     */
+    private ThreadLocal<ByteBuffer> buffers;
+
+    /**
+     * Json处理
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 加载缓存文件
+     */
+    @PostConstruct
+    public void load() {
+        buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(bufferSize));
+        Path path = Paths.get(cachePath);
+        if (!Files.exists(path)) {
+            return;
+        }
+        try {
+            cache.putAll(objectMapper.readValue(path.toFile(), new TypeReference<Map<String, Entry>>() {}));
+            log.info("__________内容哈希缓存已加载，共{}条", cache.size());
+        } catch (IOException e) {
+            // 缓存坏了就当没有，大不了重新算
+            log.error("__________内容哈希缓存加载失败，将重新计算", e);
+        }
+    }
+
+    /**
+     * 获取文件内容哈希<br/>
+     * 缓存有效就直接给，否则读一遍文件算出来再记下。
+     * @param path 文件路径
+     * @param algorithm 哈希算法
+     * @return 哈希
+     * @throws IOException 文件读不了
+     */
+    public String hash(Path path, HashAlgorithm algorithm) throws IOException {
+        return hashes(path, algorithm).get(algorithm);
+    }
+
+    /**
+     * 获取文件内容哈希（多种算法）<br/>
+     * 缺的算法会在同一遍读取里一起算掉，不会为每种算法各读一遍。
+     * @param path 文件路径
+     * @param algorithms 哈希算法
+     * @return <算法, 哈希>
+     * @throws IOException 文件读不了
+     */
+    public Map<HashAlgorithm, String> hashes(Path path, HashAlgorithm... algorithms) throws IOException {
+        String key = path.toAbsolutePath().toString();
+        BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+
+        // 校验缓存
+        Entry entry = cache.get(key);
+        if (entry == null || !matches(entry, before)) {
+            entry = new Entry(before.size(), before.lastModifiedTime().toMillis(),
+                    fileKeyOf(before), new ConcurrentHashMap<>());
+        }
+
+        // 看看还缺哪些
+        List<HashAlgorithm> missing = new ArrayList<>();
+        for (HashAlgorithm algorithm : algorithms) {
+            if (!entry.getHashes().containsKey(algorithm)) {
+                missing.add(algorithm);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result(entry, algorithms);
+        }
+
+        // 一遍读取算完所有缺的
+        Map<HashAlgorithm, String> computed = compute(path, missing);
+        // 读的时候文件被改了，那这次算出来的就不能进缓存
+        BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+        if (matches(entry, after)) {
+            entry.getHashes().putAll(computed);
+            cache.put(key, entry);
+            dirty = true;
+            return result(entry, algorithms);
+        }
+        return computed;
+    }
+
+    /**
+     * 移除指定文件的缓存
+     * @param path 文件路径
+     */
+    public void evict(Path path) {
+        if (cache.remove(path.toAbsolutePath().toString()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * 落盘<br/>
+     * 先清掉文件已经不在了的条目（被删的，被移走的），再写临时文件整个换掉，免得写一半断电把缓存文件搞坏。
+     * 有改动才落盘，清理也跟着有改动才做，闲着时不去挨个看文件。
+     */
+    @Scheduled(fixedDelayString = "${great-plan.hash-cache.flush-interval}")
+    @PreDestroy
+    public synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        int before = cache.size();
+        cache.keySet().removeIf(key -> !Files.exists(Paths.get(key)));
+        if (cache.size() < before) {
+            log.info("__________内容哈希缓存清掉{}条已不存在的文件", before - cache.size());
+        }
+        Path path = Paths.get(cachePath);
+        Path temp = Paths.get(cachePath + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            objectMapper.writeValue(temp.toFile(), cache);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            log.error("__________内容哈希缓存落盘失败", e);
+        }
+    }
+
+    /**
+     * 缓存条目是否和文件当前状态一致
+     * @param entry 缓存条目
+     * @param attrs 文件当前属性
+     * @return 是否一致
+     */
+    private boolean matches(Entry entry, BasicFileAttributes attrs) {
+        return entry.getSize() == attrs.size()
+                && entry.getLastModified() == attrs.lastModifiedTime().toMillis()
+                && Objects.equals(entry.getFileKey(), fileKeyOf(attrs));
+    }
+
+    /**
+     * 取fileKey的字符串形式
+     * @param attrs 文件属性
+     * @return fileKey（没有就是null）
+     */
+    private String fileKeyOf(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return fileKey == null ? null : fileKey.toString();
+    }
+
+    /**
+     * 按请求的算法挑出结果
+     * @param entry 缓存条目
+     * @param algorithms 哈希算法
+     * @return <算法, 哈希>
+     */
+    private Map<HashAlgorithm, String> result(Entry entry, HashAlgorithm... algorithms) {
+        Map<HashAlgorithm, String> result = new EnumMap<>(HashAlgorithm.class);
+        for (HashAlgorithm algorithm : algorithms) {
+            result.put(algorithm, entry.getHashes().get(algorithm));
+        }
+        return result;
+    }
+
+    /**
+     * 读取文件并计算哈希<br/>
+     * 走FileChannel加直接缓冲区，每读一块就喂给所有算法。
+     * @param path 文件路径
+     * @param algorithms 哈希算法
+     * @return <算法, 哈希>
+     * @throws IOException 文件读不了
+     */
+    private Map<HashAlgorithm, String> compute(Path path, List<HashAlgorithm> algorithms) throws IOException {
+        // 准备各算法的计算器
+        Map<HashAlgorithm, MessageDigest> digests = new EnumMap<>(HashAlgorithm.class);
+        Map<HashAlgorithm, Checksum> checksums = new EnumMap<>(HashAlgorithm.class);
+        for (HashAlgorithm algorithm : algorithms) {
+            if (algorithm.getDigestName() == null) {
+                checksums.put(algorithm, new XXHash32());
+            } else {
+                try {
+                    digests.put(algorithm, MessageDigest.getInstance(algorithm.getDigestName()));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        ByteBuffer buffer = buffers.get();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                // 同一块数据喂给每个算法，每次都从块头开始
+                int start = buffer.position();
+                for (MessageDigest digest : digests.values()) {
+                    buffer.position(start);
+                    digest.update(buffer);
+                }
+                for (Checksum checksum : checksums.values()) {
+                    buffer.position(start);
+                    checksum.update(buffer);
+                }
+                buffer.clear();
+            }
+        }
+
+        Map<HashAlgorithm, String> result = new EnumMap<>(HashAlgorithm.class);
+        digests.forEach((algorithm, digest) -> result.put(algorithm, HexFormat.of().formatHex(digest.digest())));
+        checksums.forEach((algorithm, checksum) -> result.put(algorithm, Long.toHexString(checksum.getValue())));
+        return result;
+    }
+}
@@ -19,18 +19,22 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * 文件IO工具类<br/>
  * 封装了文件操作与IO操作相关的方法。
+ * 会写文件的方法都会在写入意图登记表里登记，写完的变化直接改进节点树，监听报上来的自写事件会被认出来丢掉。
  */
 @Component
 public class FileIO {
@@ -46,6 +50,11 @@ public class FileIO {
     @Value("${great-plan.error-log.stackTrace-deep}")
     private String stackTraceDeep;
 
+    /**
+     * 写入意图登记表
+     */
+    private final WriteIntentRegistry writeIntentRegistry;
+
     /**
      * 文本文件表</br>
      * 就是可以被打开转成String的文件。
@@ -55,6 +64,14 @@ public class FileIO {
             "py", "java", "cpp", "c", "h", "cs", "php", "rb", "go", "rs", "sql"
     ));
 
+    /**
+     * 构造器
+     * @param writeIntentRegistry 写入意图登记表
+     */
+    public FileIO(WriteIntentRegistry writeIntentRegistry) {
+        this.writeIntentRegistry = writeIntentRegistry;
+    }
+
     /**
      * 文件收集器（指定类型文件）<br/>
      * 用于从指定目录内递归收集所有指定格式的文件，以集合形式返回。
@@ -152,6 +169,34 @@ public class FileIO {
         return Integer.toHexString(file.getAbsolutePath().hashCode());
     }
 
+    /**
+     * 获取文件身份标识<br/>
+     * 改名和在同一个盘里移动都不会变，用来认出一对删除+新建其实是一次移动。
+     * 有文件键（Linux/Mac上是设备号加inode）就用它；没有（Windows上拿不到）就用创建时间，NTFS上改名移动都不变，精度100ns，基本撞不上。
+     * @param attrs 文件属性
+     * @return 身份标识
+     */
+    public String fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        if (key != null) {
+            return key.toString();
+        }
+        return (attrs.isDirectory() ? "d" : "f") + attrs.creationTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 获取文件身份标识
+     * @param file 文件（目录）目标
+     * @return 身份标识（读不了属性为null）
+     */
+    public String fileKeyOf(File file) {
+        try {
+            return fileKeyOf(Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     /**
      * 删除文件后缀<br/>
      * 根据路径切割，获取没有带文件后缀的路径。
@@ -256,11 +301,15 @@ public class FileIO {
             parent.mkdirs();
         }
 
+        // 登记自写
+        writeIntentRegistry.begin(file.toPath());
         try {
             // 是否成功
             return file.createNewFile();
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            writeIntentRegistry.end(file.toPath());
         }
     }
 
@@ -272,6 +321,8 @@ public class FileIO {
     public void addToFile(StringBuilder content, String path) {
         // 打开地址
         Path logFile = Paths.get(path);
+        // 登记自写
+        writeIntentRegistry.begin(logFile);
         try {
             // 写入
             Files.writeString(
@@ -282,6 +333,8 @@ public class FileIO {
             );
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            writeIntentRegistry.end(logFile);
         }
     }
 
@@ -353,7 +406,8 @@ public class FileIO {
             return "似乎不是文本文件：" + split[splitLength-1];
         }
 
-        // 写入
+        // 写入（登记自写）
+        writeIntentRegistry.begin(path);
         try {
             if(inputType.equals("append")) {
                 Files.write(path, new ArrayList<>(List.of(content)),  StandardOpenOption.CREATE, StandardOpenOption.APPEND);
@@ -362,6 +416,8 @@ public class FileIO {
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            writeIntentRegistry.end(path);
         }
 
         return "正常";
@@ -405,7 +461,26 @@ public class FileIO {
                 "\t\t},"
         ));
 
-        // 覆盖基础记忆
+        // 登记自写（下面两次写入算一次）
+        writeIntentRegistry.begin(path);
+        try {
+            // 覆盖基础记忆
+            overwriteMemory(path, base);
+            // 追加事件记忆
+            appendMemory(path, event);
+        } finally {
+            writeIntentRegistry.end(path);
+        }
+
+        return "记忆已保存";
+    }
+
+    /**
+     * 覆盖基础记忆
+     * @param path 记忆文件路径
+     * @param base 基本记忆
+     */
+    private void overwriteMemory(Path path, List<String> base) {
         try {
             List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
 
@@ -418,8 +493,14 @@ public class FileIO {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
 
-        // 追加事件记忆
+    /**
+     * 追加事件记忆
+     * @param path 记忆文件路径
+     * @param event 事件记忆
+     */
+    private void appendMemory(Path path, List<String> event) {
         try {
             List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
 
@@ -429,8 +510,6 @@ public class FileIO {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
-        return "记忆已保存";
     }
 
     /**
@@ -439,6 +518,8 @@ public class FileIO {
      * @param paragraphs 预填内容（每个元素代表一个段落的文本内容）
      */
     public void createWord(String filePath, List<String> paragraphs) {
+        // 登记自写
+        writeIntentRegistry.begin(Paths.get(filePath));
         try (XWPFDocument doc = new XWPFDocument();
              FileOutputStream out = new FileOutputStream(filePath)) {
 
@@ -453,6 +534,8 @@ public class FileIO {
             throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            writeIntentRegistry.end(Paths.get(filePath));
         }
     }
 
@@ -485,6 +568,8 @@ public class FileIO {
      * @param newText 新的段落文本内容
      */
     public void updateWord(String filePath, Integer paragraphIndex, String newText) {
+        // 登记自写
+        writeIntentRegistry.begin(Paths.get(filePath));
         try (FileInputStream in = new FileInputStream(filePath);
              XWPFDocument doc = new XWPFDocument(in)) {
 
@@ -507,6 +592,8 @@ public class FileIO {
             throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            writeIntentRegistry.end(Paths.get(filePath));
         }
     }
 
@@ -516,6 +603,8 @@ public class FileIO {
      * @param data 内容（data 中的每个 List<String> 代表一行）
      */
     public void createExcel(String filePath, List<List<String>> data) {
+        // 登记自写
+        writeIntentRegistry.begin(Paths.get(filePath));
         try (XSSFWorkbook wb = new XSSFWorkbook();
              FileOutputStream out = new FileOutputStream(filePath)) {
 
@@ -533,6 +622,8 @@ public class FileIO {
             throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            writeIntentRegistry.end(Paths.get(filePath));
         }
     }
 
@@ -590,6 +681,8 @@ public class FileIO {
             return "新值不能为空";
         }
 
+        // 登记自写
+        writeIntentRegistry.begin(Paths.get(filePath));
         try (FileInputStream in = new FileInputStream(filePath);
              XSSFWorkbook wb = new XSSFWorkbook(in)) {
 
@@ -609,6 +702,8 @@ public class FileIO {
             throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            writeIntentRegistry.end(Paths.get(filePath));
         }
         return "成功";
     }
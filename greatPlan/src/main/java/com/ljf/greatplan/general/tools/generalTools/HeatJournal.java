@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.generalTools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热度日志<br/>
+ * 让点击热度扛得住重启。
+ * 每次点击后把节点（按路径）的热度状态丢进队列就返回，点击接口不等落盘；
+ * 后台写线程一次把队列里攒着的全写进日志文件，一批只fsync一次（组提交）。
+ * 日志只追加，同一路径后写的覆盖先写的，定期把被覆盖的丢掉，每个路径只留最新的一条，重写一份紧凑的。
+ * 记的是结算值和结算时间，不管多冷都留着，衰减在取回时再算（节点恢复热度时按半衰期推到现在）。
+ * 启动时只把日志读进内存表，不碰节点树，节点被扫描重新发现时再由节点树来取（懒回放）。
+ */
+@Component
+@Slf4j
+public class HeatJournal {
+    /**
+     * 热度记录<br/>
+     * 节点热度在某一时刻的结算值，读的时候按半衰期往后推。
+     * @param p 节点路径
+     * @param h 热度基准值
+     * @param t 结算时间（ms）
+     */
+    public record HeatRecord(String p, double h, long t) {}
+
+    /**
+     * 墓碑的热度基准值<br/>
+     * 节点搬走后旧路径写一条这个，回放时把旧路径的记录删掉。
+     */
+    private static final double TOMBSTONE = -1;
+
+    /**
+     * 日志文件地址
+     */
+    @Value("${great-plan.heat-journal.path}")
+    private String journalPath;
+
+    /**
+     * 单批最多写多少条
+     */
+    @Value("${great-plan.heat-journal.batch-size}")
+    private Integer batchSize;
+
+    /**
+     * 压实间隔（ms）
+     */
+    @Value("${great-plan.heat-journal.compact-interval}")
+    private Long compactInterval;
+
+    /**
+     * 最新热度表：<节点路径, 热度记录>
+     */
+    private final Map<String, HeatRecord> latest = new ConcurrentHashMap<>();
+
+    /**
+     * 待写队列
+     */
+    private final BlockingQueue<HeatRecord> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * 内存表和待写队列一起改的锁<br/>
+     * 记录时进内存表和进队列要一起完成，压实时清队列和取内存表也要一起完成，不然压实时会丢掉刚记的。
+     * 不和写盘共用一把锁，记录不能等fsync。
+     */
+    private final Object stateLock = new Object();
+
+    /**
+     * 日志文件
+     */
+    private FileChannel channel;
+
+    /**
+     * 写线程
+     */
+    private Thread writer;
+
+    /**
+     * 是否还在运行
+     */
+    private volatile boolean running = true;
+
+    /**
+     * 上次压实时间（ms）
+     */
+    private long lastCompact = System.currentTimeMillis();
+
+    /**
+     * Json处理
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 加载并启动写线程
+     */
+    @PostConstruct
+    public void start() {
+        Path path = Paths.get(journalPath);
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            if (Files.exists(path)) {
+                replay(path);
+            }
+            // 启动时顺手压实一次，把上次攒下的冗余清掉
+            compact();
+        } catch (IOException e) {
+            // 日志坏了就当没有，最多是热度从头算
+            log.error("__________热度日志加载失败", e);
+        }
+        writer = new Thread(this::writeLoop, "Heat-Journal-Writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 记录热度<br/>
+     * 只进内存表和队列，不等落盘。
+     * @param path 节点路径
+     * @param heatValue 热度基准值
+     * @param heatUpdatedAt 结算时间（ms）
+     */
+    public void record(String path, double heatValue, long heatUpdatedAt) {
+        HeatRecord record = new HeatRecord(path, heatValue, heatUpdatedAt);
+        synchronized (stateLock) {
+            latest.put(path, record);
+            queue.offer(record);
+        }
+    }
+
+    /**
+     * 查找热度<br/>
+     * 节点被重新发现时由节点树来取。
+     * @param path 节点路径
+     * @return 热度记录（没有就是null）
+     */
+    public HeatRecord lookup(String path) {
+        return latest.get(path);
+    }
+
+    /**
+     * 搬走热度<br/>
+     * 节点被移动（改名）后，旧路径下的热度记到新路径下，旧路径写墓碑。没记过热度的不用管。
+     * @param oldPath 旧路径
+     * @param newPath 新路径
+     */
+    public void move(String oldPath, String newPath) {
+        synchronized (stateLock) {
+            HeatRecord old = latest.remove(oldPath);
+            if (old == null) {
+                return;
+            }
+            queue.offer(new HeatRecord(oldPath, TOMBSTONE, System.currentTimeMillis()));
+            record(newPath, old.h(), old.t());
+        }
+    }
+
+    /**
+     * 停止<br/>
+     * 把队列里剩下的写完再关。
+     * 不打断写线程（正在写的时候被打断，文件会被关掉，这一批就丢了），等它自己退出（最多等一次poll的时间）。
+     * 剩下的可能不止一批，一批一批写到队列空为止。
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (writer != null) {
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (!queue.isEmpty() && channel != null) {
+            writeBatch(null);
+        }
+        closeChannel();
+    }
+
+    /**
+     * 写线程循环<br/>
+     * 有东西就攒一批写掉，闲着时看看该不该压实。
+     */
+    private void writeLoop() {
+        while (running) {
+            try {
+                HeatRecord first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    writeBatch(first);
+                }
+                if (System.currentTimeMillis() - lastCompact >= compactInterval) {
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                // 正常停止不会打断，被打断就退出，剩下的由stop收尾
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写一批<br/>
+     * 把队列里的一次性取出来，拼成一块写进去，整批只fsync一次。
+     * @param first 已经取出来的第一条（没有就是null）
+     */
+    private synchronized void writeBatch(HeatRecord first) {
+        List<HeatRecord> batch = new ArrayList<>();
+        if (first != null) {
+            batch.add(first);
+        }
+        queue.drainTo(batch, batchSize);
+        if (batch.isEmpty() || channel == null) {
+            return;
+        }
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (HeatRecord record : batch) {
+                lines.append(objectMapper.writeValueAsString(record)).append('\n');
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("__________热度日志写入失败，丢失{}条", batch.size(), e);
+        }
+    }
+
+    /**
+     * 压实<br/>
+     * 把内存表（每个路径最新的一条）重写成一份新日志，写临时文件再整个换掉。
+     */
+    private synchronized void compact() {
+        lastCompact = System.currentTimeMillis();
+        // 内存表已经是最新的了，队列里的不用再写进旧文件（清队列和取内存表在一把锁里，清掉的一定在取到的里面）
+        List<HeatRecord> records;
+        synchronized (stateLock) {
+            queue.clear();
+            records = new ArrayList<>(latest.values());
+        }
+
+        Path path = Paths.get(journalPath);
+        Path temp = Paths.get(journalPath + ".tmp");
+        try {
+            closeChannel();
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                StringBuilder lines = new StringBuilder();
+                for (HeatRecord record : records) {
+                    lines.append(objectMapper.writeValueAsString(record)).append('\n');
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(false);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("__________热度日志压实失败", e);
+        } finally {
+            openChannel(path);
+        }
+    }
+
+    /**
+     * 回放日志进内存表
+     * @param path 日志文件
+     * @throws IOException 读不了
+     */
+    private void replay(Path path) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    HeatRecord record = objectMapper.readValue(line, HeatRecord.class);
+                    if (record.h() == TOMBSTONE) {
+                        latest.remove(record.p());
+                    } else {
+                        latest.put(record.p(), record);
+                    }
+                    count++;
+                } catch (IOException e) {
+                    // 写一半断电留下的半行，跳过
+                    log.warn("__________热度日志有损坏的记录，已跳过");
+                }
+            }
+        }
+        log.info("__________热度日志已加载，共{}条记录，{}个节点", count, latest.size());
+    }
+
+    /**
+     * 打开日志文件（追加）
+     * @param path 日志文件
+     */
+    private void openChannel(Path path) {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            channel = null;
+            log.error("__________热度日志打开失败，热度将不会被保存", e);
+        }
+    }
+
+    /**
+     * 关闭日志文件
+     */
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("__________热度日志关闭失败", e);
+        }
+        channel = null;
+    }
+}
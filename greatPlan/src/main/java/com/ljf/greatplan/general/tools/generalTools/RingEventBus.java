@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.generalTools;
+
+import com.ljf.greatplan.core.enums.BusEventType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 环形事件总线<br/>
+ * 监听，扫描，剪枝，插件这些地方产生的事件都发到这里，谁要用谁自己订阅，生产者不用知道有哪些消费者。
+ * 底下是一个启动时就分配好的环形数组（格子复用，发事件时不再为每个事件new包装对象），生产者按序号认领格子，填好后标记为已发布。
+ * 每个消费者一个线程，各自记着处理到的序号，每次把已经发布的连续一段一口气处理完（成批处理）。
+ * 背压是显式的：最慢的消费者还没处理完的格子不会被覆盖，环满了publish就等着（退避着等，等太久就放弃），tryPublish直接返回失败。
+ * 所有消费者都处理过的格子会被释放（清掉载荷，不然环上一直拽着最多一整圈的旧载荷，被移除的整棵子树也回收不了），生产者只往释放过的格子里填。
+ * 每个消费者落后多少（发布序号减它处理到的序号）随时可查。
+ */
+@Component
+@Slf4j
+public class RingEventBus {
+    /**
+     * 事件格子<br/>
+     * 内部类，环上的每个格子都是一个，反复使用。
+     * 消费者只能在处理时读它，不能留着引用（之后会被覆盖），要留就留里面的载荷。
+     */
+    public static final class Slot {
+        /**
+         * 事件类型
+         */
+        private BusEventType type;
+
+        /**
+         * 载荷
+         */
+        private Object payload;
+
+        /**
+         * 发布时刻（ms）
+         */
+        private long at;
+
+        public BusEventType getType() {
+            return type;
+        }
+
+        public Object getPayload() {
+            return payload;
+        }
+
+        public long getAt() {
+            return at;
+        }
+    }
+
+    /**
+     * 事件处理者
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * 处理一个事件
+         * @param event 事件格子（只在这次调用里有效）
+         * @param sequence 事件序号
+         * @param endOfBatch 是否这一批的最后一个（攒着的活可以在这时候一起做）
+         */
+        void onEvent(Slot event, long sequence, boolean endOfBatch);
+    }
+
+    /**
+     * 消费者<br/>
+     * 内部类，一个消费者一个线程，一个处理到的序号。
+     */
+    private final class Consumer implements Runnable {
+        /**
+         * 名字
+         */
+        private final String name;
+
+        /**
+         * 事件处理者
+         */
+        private final Handler handler;
+
+        /**
+         * 已经处理完的序号
+         */
+        private final AtomicLong sequence;
+
+        /**
+         * 已处理事件数
+         */
+        private final AtomicLong processed = new AtomicLong();
+
+        /**
+         * 已处理批数
+         */
+        private final AtomicLong batches = new AtomicLong();
+
+        /**
+         * 出现过的最大落后
+         */
+        private volatile long maxLag;
+
+        /**
+         * 是否在睡（没事件可处理）
+         */
+        private volatile boolean waiting;
+
+        /**
+         * 是否还在运行
+         */
+        private volatile boolean running = true;
+
+        /**
+         * 线程
+         */
+        private Thread thread;
+
+        /**
+         * 构造器
+         * @param name 名字
+         * @param handler 事件处理者
+         * @param start 从哪个序号之后开始处理
+         */
+        private Consumer(String name, Handler handler, long start) {
+            this.name = name;
+            this.handler = handler;
+            this.sequence = new AtomicLong(start);
+        }
+
+        /**
+         * 消费循环<br/>
+         * 找出已经发布的连续一段，一口气处理完再把序号推进过去（推进之后生产者才能覆盖这些格子）。
+         */
+        @Override
+        public void run() {
+            while (running) {
+                long next = sequence.get() + 1;
+                long available = highestPublished(next);
+                if (available < next) {
+                    // 没东西可处理就睡，生产者发布时会叫醒
+                    waiting = true;
+                    if (highestPublished(next) < next && running) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                long lag = cursor.get() - next + 1;
+                if (lag > maxLag) {
+                    maxLag = lag;
+                }
+                for (long seq = next; seq <= available; seq++) {
+                    try {
+                        handler.onEvent(slots[(int) (seq & mask)], seq, seq == available);
+                    } catch (RuntimeException e) {
+                        // 一个事件出错不能让消费者停掉
+                        log.error("__________事件总线消费者{}处理失败，序号{}", name, seq, e);
+                    }
+                }
+                processed.addAndGet(available - next + 1);
+                batches.incrementAndGet();
+                sequence.set(available);
+                release();
+            }
+        }
+    }
+
+    /**
+     * 环的大小（格子数，会向上取到2的幂）
+     */
+    @Value("${great-plan.event-bus.capacity}")
+    private Integer capacity;
+
+    /**
+     * 环满时publish最多等多久（ms），等不到就放弃这个事件
+     */
+    @Value("${great-plan.event-bus.publish-timeout}")
+    private Long publishTimeout;
+
+    /**
+     * 格子
+     */
+    private Slot[] slots;
+
+    /**
+     * 每个格子当前放的是哪个序号的事件（用来判断格子是否已发布）
+     */
+    private AtomicLongArray published;
+
+    /**
+     * 序号掩码
+     */
+    private int mask;
+
+    /**
+     * 已认领的最大序号
+     */
+    private final AtomicLong cursor = new AtomicLong(-1);
+
+    /**
+     * 已释放的最大序号（它及之前的格子都清掉了载荷，可以覆盖）
+     */
+    private final AtomicLong released = new AtomicLong(-1);
+
+    /**
+     * 释放锁（同一段格子只让一个线程清）
+     */
+    private final Object releaseLock = new Object();
+
+    /**
+     * 所有消费者
+     */
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+
+    /**
+     * 因为环满而等待过的发布次数
+     */
+    private final AtomicLong blocked = new AtomicLong();
+
+    /**
+     * 因为环满被拒绝的发布次数
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 各类型事件的发布数
+     */
+    private final AtomicLongArray publishedByType = new AtomicLongArray(BusEventType.values().length);
+
+    /**
+     * 启动<br/>
+     * 一次性把所有格子分配好。
+     */
+    @PostConstruct
+    public void start() {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        Slot[] allocated = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            allocated[i] = new Slot();
+        }
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        mask = size - 1;
+        slots = allocated;
+        log.info("__________事件总线启动，环大小{}", size);
+    }
+
+    /**
+     * 停止<br/>
+     * 叫醒所有消费者让它们退出。
+     */
+    @PreDestroy
+    public void stop() {
+        for (Consumer consumer : consumers) {
+            consumer.running = false;
+            LockSupport.unpark(consumer.thread);
+        }
+    }
+
+    /**
+     * 订阅<br/>
+     * 从订阅时的最新序号之后开始收，不补之前的事件。
+     * 处理者在消费者自己的线程里被调用，里面不要再往总线上发事件（环满时会和自己互相等死）。
+     * @param name 消费者名字（也是线程名的一部分）
+     * @param handler 事件处理者
+     */
+    public void subscribe(String name, Handler handler) {
+        Consumer consumer = new Consumer(name, handler, cursor.get());
+        consumer.thread = new Thread(consumer, "Event-Bus-" + name);
+        consumer.thread.setDaemon(true);
+        consumers.add(consumer);
+        consumer.thread.start();
+    }
+
+    /**
+     * 发布<br/>
+     * 环满了（最慢的消费者落后一整圈）就等到有空位，背压会一路传回生产者。
+     * 等的时候从1微秒开始翻倍退避（最多1毫秒一次），等过了上限就放弃这个事件（记为拒绝）。
+     * 序号是有空位之后才认领的，放弃不会在环上留下空洞。
+     * @param type 事件类型
+     * @param payload 载荷
+     * @return 是否发布了（总线还没启动，或者等超时了就是false）
+     */
+    public boolean publish(BusEventType type, Object payload) {
+        if (slots == null) {
+            return false;
+        }
+        long deadline = 0;
+        long backoff = 1000;
+        while (true) {
+            long current = cursor.get();
+            long seq = current + 1;
+            if (seq - slots.length > released.get()) {
+                release();
+                if (seq - slots.length > released.get()) {
+                    long now = System.nanoTime();
+                    if (deadline == 0) {
+                        blocked.incrementAndGet();
+                        deadline = now + publishTimeout * 1_000_000;
+                    } else if (now - deadline > 0) {
+                        rejected.incrementAndGet();
+                        log.warn("__________事件总线环满，等了{}ms还没有空位，丢掉{}事件", publishTimeout, type);
+                        return false;
+                    }
+                    LockSupport.parkNanos(backoff);
+                    backoff = Math.min(backoff * 2, 1_000_000);
+                    continue;
+                }
+            }
+            if (cursor.compareAndSet(current, seq)) {
+                fill(seq, type, payload);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 尝试发布<br/>
+     * 环满了直接返回失败，不等。
+     * @param type 事件类型
+     * @param payload 载荷
+     * @return 是否发布了
+     */
+    public boolean tryPublish(BusEventType type, Object payload) {
+        if (slots == null) {
+            return false;
+        }
+        while (true) {
+            long current = cursor.get();
+            long seq = current + 1;
+            if (seq - slots.length > released.get()) {
+                release();
+                if (seq - slots.length > released.get()) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+            }
+            if (cursor.compareAndSet(current, seq)) {
+                fill(seq, type, payload);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取统计<br/>
+     * 总的发布，等待，拒绝数，各类型发布数，每个消费者的落后，最大落后，处理数，批数。
+     * @return 统计
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        long head = cursor.get();
+        stats.put("published", head + 1);
+        stats.put("blocked", blocked.get());
+        stats.put("rejected", rejected.get());
+        for (BusEventType type : BusEventType.values()) {
+            stats.put("published." + type.name(), publishedByType.get(type.ordinal()));
+        }
+        for (Consumer consumer : consumers) {
+            stats.put(consumer.name + ".lag", head - consumer.sequence.get());
+            stats.put(consumer.name + ".maxLag", consumer.maxLag);
+            stats.put(consumer.name + ".processed", consumer.processed.get());
+            stats.put(consumer.name + ".batches", consumer.batches.get());
+        }
+        return stats;
+    }
+
+    /**
+     * 填格子并标记为已发布，叫醒在睡的消费者
+     * @param seq 序号
+     * @param type 事件类型
+     * @param payload 载荷
+     */
+    private void fill(long seq, BusEventType type, Object payload) {
+        int index = (int) (seq & mask);
+        Slot slot = slots[index];
+        slot.type = type;
+        slot.payload = payload;
+        slot.at = System.currentTimeMillis();
+        publishedByType.incrementAndGet(type.ordinal());
+        // 这一步之后消费者才看得到这个格子（之前写的字段对它都可见）
+        published.set(index, seq);
+        for (Consumer consumer : consumers) {
+            if (consumer.waiting) {
+                LockSupport.unpark(consumer.thread);
+            }
+        }
+    }
+
+    /**
+     * 从某个序号开始，连续已发布的最大序号<br/>
+     * 多个生产者可能乱序填完，中间有一个没填好就只能处理到它前面。
+     * @param from 起始序号
+     * @return 最大序号（一个都没有就是from - 1）
+     */
+    private long highestPublished(long from) {
+        long head = cursor.get();
+        long seq = from;
+        while (seq <= head && published.get((int) (seq & mask)) == seq) {
+            seq++;
+        }
+        return seq - 1;
+    }
+
+    /**
+     * 释放格子<br/>
+     * 所有消费者都处理过（没有消费者就是已经填好）的格子清掉载荷，再把已释放序号推进过去，之后生产者才能覆盖。
+     * 只释放连续已填好的，还在填的格子不碰。
+     */
+    private void release() {
+        synchronized (releaseLock) {
+            long from = released.get() + 1;
+            long target = highestPublished(from);
+            for (Consumer consumer : consumers) {
+                target = Math.min(target, consumer.sequence.get());
+            }
+            for (long seq = from; seq <= target; seq++) {
+                slots[(int) (seq & mask)].payload = null;
+            }
+            if (target >= from) {
+                released.set(target);
+            }
+        }
+    }
+}
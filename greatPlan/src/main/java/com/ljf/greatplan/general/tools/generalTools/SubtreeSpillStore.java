@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.generalTools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ljf.greatplan.core.entity.DirectoryNode;
+import com.ljf.greatplan.core.entity.FileNode;
+import com.ljf.greatplan.core.entity.Node;
+import com.ljf.greatplan.core.entity.NodeTree;
+import com.ljf.greatplan.core.enums.NodeChangeCause;
+import com.ljf.greatplan.core.enums.NodeType;
+import com.ljf.greatplan.core.enums.ScanStatus;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * 子树溢出存储<br/>
+ * 节点树的第二层：被剪掉或折叠掉的子树不直接扔，而是序列化后追加写进本地的段文件，按父节点ID建索引。
+ * 下次展开这个目录时，先挨个比一下子树里目录的修改时间（只stat，不列目录），没变就直接从段文件里读回来，不用再扫一遍盘。
+ * 目录的修改时间在直接子项增删改名时都会变，所以比对所有目录就能发现子树结构有没有变化。
+ * 段文件只追加，读回或作废的记录追加一条墓碑，死数据多了就整体压实一次。
+ */
+@Component
+@Slf4j
+public class SubtreeSpillStore {
+    /**
+     * 溢出记录<br/>
+     * 内部类，一次溢出就是一条，对应一个目录下的整个子树。
+     * 子节点为空的记录是墓碑。
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class SpillRecord {
+        /**
+         * 父节点（被折叠的目录）ID
+         */
+        private String parentId;
+
+        /**
+         * 父节点溢出时的修改时间（ms）
+         */
+        private long parentLastModified;
+
+        /**
+         * 父节点溢出时的扫描状态
+         */
+        private ScanStatus parentScanStatus;
+
+        /**
+         * 父节点的直接子节点ID集
+         */
+        private List<String> childNode = new ArrayList<>();
+
+        /**
+         * 子树中的所有节点
+         */
+        private List<SpilledNode> nodes = new ArrayList<>();
+    }
+
+    /**
+     * 溢出节点<br/>
+     * 内部类，节点落盘时的样子，目录和文件共用，用不上的字段留空。
+     */
+    @Data
+    @NoArgsConstructor
+    public static class SpilledNode {
+        private String id;
+        private String name;
+        private NodeType nodeType;
+        private String path;
+        private String parentNode;
+        private List<String> childNode = new ArrayList<>();
+        private ScanStatus scanStatus;
+        private String size;
+        private String fileType;
+        private String fileKey;
+
+        /**
+         * 修改时间（ms，目录是溢出时磁盘上的，文件是节点上记的）
+         */
+        private long lastModified;
+    }
+
+    /**
+     * 记录位置<br/>
+     * 内部类，索引里记的就是这个。
+     * @param segment 段文件名
+     * @param offset 偏移
+     * @param length 长度
+     */
+    private record Location(String segment, long offset, int length) {}
+
+    /**
+     * 节点树
+     */
+    private final NodeTree nodeTree;
+
+    /**
+     * 段文件目录
+     */
+    @Value("${great-plan.spill-store.path}")
+    private String storePath;
+
+    /**
+     * 单个段文件大小上限（byte），超了就换新段
+     */
+    @Value("${great-plan.spill-store.segment-size}")
+    private Long segmentSize;
+
+    /**
+     * 索引：<父节点ID, 记录位置>
+     */
+    private final Map<String, Location> index = new HashMap<>();
+
+    /**
+     * 当前写入的段文件
+     */
+    private FileChannel active;
+
+    /**
+     * 当前写入的段文件名
+     */
+    private String activeName;
+
+    /**
+     * 段文件序号
+     */
+    private int sequence = 0;
+
+    /**
+     * 段文件总大小（byte）
+     */
+    private long totalBytes = 0;
+
+    /**
+     * 有效记录总大小（byte）
+     */
+    private long liveBytes = 0;
+
+    /**
+     * Json处理
+     */
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 构造器
+     * @param nodeTree 节点树
+     */
+    public SubtreeSpillStore(NodeTree nodeTree) {
+        this.nodeTree = nodeTree;
+    }
+
+    /**
+     * 加载<br/>
+     * 把所有段文件按顺序读一遍重建索引，后写的覆盖先写的，墓碑删掉索引。
+     */
+    @PostConstruct
+    public synchronized void load() {
+        Path dir = Paths.get(storePath);
+        try {
+            Files.createDirectories(dir);
+            for (Path segment : segments()) {
+                replay(segment);
+                sequence = Math.max(sequence, sequenceOf(segment));
+            }
+            log.info("__________子树溢出存储已加载，共{}棵子树", index.size());
+        } catch (IOException e) {
+            // 加载不了就当没有，大不了重新扫盘
+            log.error("__________子树溢出存储加载失败", e);
+        }
+    }
+
+    /**
+     * 是否溢出过
+     * @param dirId 目录节点ID
+     * @return 是否有可读回的子树
+     */
+    public synchronized boolean contains(String dirId) {
+        return index.containsKey(dirId);
+    }
+
+    /**
+     * 溢出<br/>
+     * 把目录下现有的整个子树写进段文件，要在从节点树里删掉之前调。
+     * @param dirId 目录节点ID
+     */
+    public synchronized void spill(String dirId) {
+        Node dir = nodeTree.getNodeById(dirId);
+        if (dir == null || dir.getChildNode().isEmpty()) {
+            return;
+        }
+        SpillRecord record = new SpillRecord();
+        record.setParentId(dirId);
+        record.setParentLastModified(new File(dir.getPath()).lastModified());
+        record.setParentScanStatus(dir instanceof DirectoryNode directoryNode ? directoryNode.getScanStatus() : null);
+        record.setChildNode(new ArrayList<>(dir.getChildNode()));
+
+        // 收集子树
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(dir);
+        while (!stack.isEmpty()) {
+            for (String childId : stack.pop().getChildNode()) {
+                Node child = nodeTree.getNodeById(childId);
+                if (child != null) {
+                    record.getNodes().add(toSpilled(child));
+                    stack.push(child);
+                }
+            }
+        }
+
+        try {
+            append(record);
+        } catch (IOException e) {
+            log.error("__________子树溢出失败：{}", dir.getPath(), e);
+        }
+    }
+
+    /**
+     * 读回<br/>
+     * 目录有溢出的子树，且子树里所有目录的修改时间都没变，就把子树塞回节点树。
+     * 读回后（或发现已经过期）记录就作废了，再被折叠时会重新溢出。
+     * @param dirId 目录节点ID
+     * @return 是否读回成功（失败就老老实实去扫盘）
+     */
+    public synchronized boolean rehydrate(String dirId) {
+        Location location = index.get(dirId);
+        Node dir = nodeTree.getNodeById(dirId);
+        if (location == null || dir == null) {
+            return false;
+        }
+        try {
+            SpillRecord record = read(location);
+            if (!isFresh(dir, record)) {
+                log.info("__________溢出的子树已过期，重新扫描：{}", dir.getPath());
+                discard(dirId);
+                return false;
+            }
+            for (SpilledNode spilled : record.getNodes()) {
+                // 树里已经有的以树里的为准（比如还带着热度的节点）
+                if (nodeTree.getNodeById(spilled.getId()) == null) {
+                    nodeTree.withCause(NodeChangeCause.SPILL, () -> {
+                        nodeTree.addNode(toNode(spilled));
+                        return null;
+                    });
+                }
+            }
+            for (String childId : record.getChildNode()) {
+                if (!dir.getChildNode().contains(childId)) {
+                    dir.getChildNode().add(childId);
+                }
+            }
+            if (dir instanceof DirectoryNode directoryNode && record.getParentScanStatus() != null) {
+                directoryNode.setScanStatus(record.getParentScanStatus());
+            }
+            discard(dirId);
+            log.info("__________从溢出存储读回子树：{}，共{}个节点", dir.getPath(), record.getNodes().size());
+            return true;
+        } catch (IOException e) {
+            log.error("__________溢出的子树读取失败，重新扫描：{}", dir.getPath(), e);
+            index.remove(dirId);
+            return false;
+        }
+    }
+
+    /**
+     * 作废<br/>
+     * 追加一条墓碑，索引里删掉。
+     * @param dirId 目录节点ID
+     */
+    public synchronized void discard(String dirId) {
+        if (!index.containsKey(dirId)) {
+            return;
+        }
+        SpillRecord tombstone = new SpillRecord();
+        tombstone.setParentId(dirId);
+        try {
+            append(tombstone);
+        } catch (IOException e) {
+            // 墓碑没写上，重启后这条会复活，但读回前有修改时间校验，不会读到错的
+            index.remove(dirId);
+            log.error("__________溢出记录作废失败：{}", dirId, e);
+        }
+    }
+
+    /**
+     * 关闭当前段文件
+     */
+    @PreDestroy
+    public synchronized void close() {
+        closeActive();
+    }
+
+    /**
+     * 追加一条记录<br/>
+     * 一条记录一行Json，写完更新索引，死数据比活数据多了就压实。
+     * @param record 记录
+     * @throws IOException 写不进去
+     */
+    private void append(SpillRecord record) throws IOException {
+        Location location = write(record);
+        Location old = record.getNodes().isEmpty() ? index.remove(record.getParentId()) : index.put(record.getParentId(), location);
+        if (old != null) {
+            liveBytes -= old.length();
+        }
+        if (!record.getNodes().isEmpty()) {
+            liveBytes += location.length();
+        }
+        if (totalBytes > segmentSize && totalBytes - liveBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * 写一条记录进当前段文件
+     * @param record 记录
+     * @return 记录位置
+     * @throws IOException 写不进去
+     */
+    private Location write(SpillRecord record) throws IOException {
+        byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        if (active == null || active.size() + line.length > segmentSize) {
+            roll();
+        }
+        long offset = active.size();
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            active.write(buffer, offset + buffer.position());
+        }
+        totalBytes += line.length;
+        return new Location(activeName, offset, line.length);
+    }
+
+    /**
+     * 读一条记录
+     * @param location 记录位置
+     * @return 记录
+     * @throws IOException 读不了
+     */
+    private SpillRecord read(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length());
+        try (FileChannel channel = FileChannel.open(Paths.get(storePath, location.segment()), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, location.offset() + buffer.position()) < 0) {
+                    throw new IOException("段文件被截断：" + location.segment());
+                }
+            }
+        }
+        return objectMapper.readValue(buffer.array(), SpillRecord.class);
+    }
+
+    /**
+     * 换新段
+     * @throws IOException 建不了
+     */
+    private void roll() throws IOException {
+        closeActive();
+        sequence++;
+        activeName = String.format("segment-%08d.ndjson", sequence);
+        active = FileChannel.open(Paths.get(storePath, activeName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 关闭当前段文件
+     */
+    private void closeActive() {
+        if (active == null) {
+            return;
+        }
+        try {
+            active.close();
+        } catch (IOException e) {
+            log.error("__________段文件关闭失败：{}", activeName, e);
+        }
+        active = null;
+    }
+
+    /**
+     * 压实<br/>
+     * 把所有还有效的记录搬到新段里，然后删掉旧段。
+     */
+    private void compact() {
+        try {
+            List<Path> old = segments();
+            Map<String, Location> live = new HashMap<>(index);
+            index.clear();
+            totalBytes = 0;
+            liveBytes = 0;
+            // 先换新段，保证搬的时候不会写回旧段
+            roll();
+            for (Map.Entry<String, Location> entry : live.entrySet()) {
+                Location location = write(read(entry.getValue()));
+                index.put(entry.getKey(), location);
+                liveBytes += location.length();
+            }
+            for (Path segment : old) {
+                Files.deleteIfExists(segment);
+            }
+            log.info("__________子树溢出存储压实完成，剩余{}棵子树，{}byte", index.size(), liveBytes);
+        } catch (IOException e) {
+            log.error("__________子树溢出存储压实失败", e);
+        }
+    }
+
+    /**
+     * 回放一个段文件
+     * @param segment 段文件
+     * @throws IOException 读不了
+     */
+    private void replay(Path segment) throws IOException {
+        String name = segment.getFileName().toString();
+        long offset = 0;
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int length = line.getBytes(StandardCharsets.UTF_8).length + 1;
+                try {
+                    SpillRecord record = objectMapper.readValue(line, SpillRecord.class);
+                    Location old = record.getNodes().isEmpty()
+                            ? index.remove(record.getParentId())
+                            : index.put(record.getParentId(), new Location(name, offset, length));
+                    if (old != null) {
+                        liveBytes -= old.length();
+                    }
+                    if (!record.getNodes().isEmpty()) {
+                        liveBytes += length;
+                    }
+                } catch (IOException e) {
+                    // 写一半断电留下的半行，跳过
+                    log.warn("__________段文件{}在{}处有损坏的记录，已跳过", name, offset);
+                }
+                offset += length;
+            }
+        }
+        totalBytes += offset;
+    }
+
+    /**
+     * 按序号列出所有段文件
+     * @return 段文件
+     * @throws IOException 列不了
+     */
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> stream = Files.list(Paths.get(storePath))) {
+            return stream.filter(p -> p.getFileName().toString().startsWith("segment-"))
+                    .sorted(Comparator.comparingInt(this::sequenceOf))
+                    .toList();
+        }
+    }
+
+    /**
+     * 取段文件序号
+     * @param segment 段文件
+     * @return 序号
+     */
+    private int sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Integer.parseInt(name.substring("segment-".length(), name.indexOf('.')));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 溢出的子树是否还新鲜<br/>
+     * 父目录和子树里每个目录的修改时间都没变才算（结构没变）。
+     * 文件内容改了目录的修改时间不会变，文件的大小和修改时间在读回时重新取，不靠这里。
+     * @param dir 父节点
+     * @param record 记录
+     * @return 是否新鲜
+     */
+    private boolean isFresh(Node dir, SpillRecord record) {
+        if (new File(dir.getPath()).lastModified() != record.getParentLastModified()) {
+            return false;
+        }
+        for (SpilledNode spilled : record.getNodes()) {
+            if (spilled.getNodeType() == NodeType.DIRECTORY
+                    && new File(spilled.getPath()).lastModified() != spilled.getLastModified()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 节点转溢出节点
+     * @param node 节点
+     * @return 溢出节点
+     */
+    private SpilledNode toSpilled(Node node) {
+        SpilledNode spilled = new SpilledNode();
+        spilled.setId(node.getId());
+        spilled.setName(node.getName());
+        spilled.setNodeType(node.getNodeType());
+        spilled.setPath(node.getPath());
+        spilled.setParentNode(node.getParentNode());
+        spilled.setChildNode(new ArrayList<>(node.getChildNode()));
+        spilled.setFileKey(node.getFileKey());
+        if (node instanceof DirectoryNode directoryNode) {
+            spilled.setScanStatus(directoryNode.getScanStatus());
+            spilled.setLastModified(new File(node.getPath()).lastModified());
+        } else if (node instanceof FileNode fileNode) {
+            spilled.setSize(fileNode.getSize());
+            spilled.setFileType(fileNode.getFileType());
+            spilled.setLastModified(fileNode.getLastModified() == null ? 0 : fileNode.getLastModified());
+        }
+        return spilled;
+    }
+
+    /**
+     * 溢出节点转节点<br/>
+     * 文件的大小和修改时间重新从磁盘取（溢出期间内容可能被改过），取不到才用溢出时记的。
+     * @param spilled 溢出节点
+     * @return 节点
+     */
+    private Node toNode(SpilledNode spilled) {
+        Node node;
+        if (spilled.getNodeType() == NodeType.DIRECTORY) {
+            DirectoryNode directoryNode = new DirectoryNode();
+            directoryNode.setScanStatus(spilled.getScanStatus());
+            node = directoryNode;
+        } else {
+            FileNode fileNode = new FileNode();
+            File file = new File(spilled.getPath());
+            if (file.isFile()) {
+                fileNode.setSize(String.valueOf(file.length()));
+                fileNode.setLastModified(file.lastModified());
+            } else {
+                fileNode.setSize(spilled.getSize());
+                fileNode.setLastModified(spilled.getLastModified());
+            }
+            fileNode.setFileType(spilled.getFileType());
+            node = fileNode;
+        }
+        node.setId(spilled.getId());
+        node.setName(spilled.getName());
+        node.setNodeType(spilled.getNodeType());
+        node.setPath(spilled.getPath());
+        node.setParentNode(spilled.getParentNode());
+        node.setChildNode(new ArrayList<>(spilled.getChildNode()));
+        node.setFileKey(spilled.getFileKey());
+        return node;
+    }
+}
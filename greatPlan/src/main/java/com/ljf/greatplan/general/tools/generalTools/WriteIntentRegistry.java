@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.generalTools;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 写入意图登记表<br/>
+ * 程序自己写文件（AI工具写文本，写记忆，写word/excel，写异常日志）时，监听照样会收到事件，再当成外部变化去处理一遍。
+ * 现在写之前先登记“我要写这个文件了”，写完记下写出来的（大小，修改时间），并马上把这个已知的变化交给处理者直接改进节点树。
+ * 之后监听报上来这个文件的事件时，文件状态和登记的一样就说明是自己写的，直接丢掉，不再走防抖和应用那一套。
+ * 写完之后别人又改了（状态对不上），就照常当外部变化处理。
+ * 登记只保留一小会儿，过期的定时清掉。
+ */
+@Component
+@Slf4j
+public class WriteIntentRegistry {
+    /**
+     * 写入意图（写出来的大小，修改时间，过期时刻）<br/>
+     * 大小为-1表示还在写。
+     */
+    private record Intent(long size, long lastModified, long expiresAt) {}
+
+    /**
+     * 登记保留时长（ms），写完后这么久内的事件都拿来比对
+     */
+    @Value("${great-plan.write-intent.ttl}")
+    private Long ttl;
+
+    /**
+     * 登记表：<文件绝对路径, 写入意图>
+     */
+    private final Map<Path, Intent> intents = new ConcurrentHashMap<>();
+
+    /**
+     * 写完后的处理者（拿着文件路径去改节点树）
+     */
+    private volatile Consumer<Path> handler = path -> {};
+
+    /**
+     * 丢掉的自写事件数
+     */
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * 设置写完后的处理者
+     * @param handler 处理者
+     */
+    public void setHandler(Consumer<Path> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * 开始写<br/>
+     * 写的过程中报上来的事件都算自己的。
+     * @param path 文件路径
+     */
+    public void begin(Path path) {
+        intents.put(key(path), new Intent(-1, -1, Long.MAX_VALUE));
+    }
+
+    /**
+     * 写完了<br/>
+     * 记下写出来的状态，把这个变化交给处理者。写失败（文件不存在）就撤销登记。
+     * @param path 文件路径
+     */
+    public void end(Path path) {
+        Path key = key(path);
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+            intents.put(key, new Intent(attrs.size(), attrs.lastModifiedTime().toMillis(), System.currentTimeMillis() + ttl));
+        } catch (IOException e) {
+            intents.remove(key);
+            return;
+        }
+        try {
+            handler.accept(key);
+        } catch (RuntimeException e) {
+            // 应用失败也不能让写文件的那边失败，之后的事件会照常处理
+            intents.remove(key);
+            log.error("__________自写变更应用失败：{}", key, e);
+        }
+    }
+
+    /**
+     * 是不是自己写的<br/>
+     * 还在写，或者文件现在的状态和写完时一样，就是自己写的。
+     * @param path 文件路径
+     * @return 是否自己写的
+     */
+    public boolean isSelfWrite(Path path) {
+        if (intents.isEmpty()) {
+            return false;
+        }
+        Path key = key(path);
+        Intent intent = intents.get(key);
+        if (intent == null) {
+            return false;
+        }
+        if (intent.size() < 0) {
+            suppressed.incrementAndGet();
+            return true;
+        }
+        if (intent.expiresAt() < System.currentTimeMillis()) {
+            intents.remove(key, intent);
+            return false;
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(key, BasicFileAttributes.class);
+            if (attrs.size() == intent.size() && attrs.lastModifiedTime().toMillis() == intent.lastModified()) {
+                suppressed.incrementAndGet();
+                return true;
+            }
+        } catch (IOException e) {
+            // 已经被删了，不是自己干的
+        }
+        intents.remove(key, intent);
+        return false;
+    }
+
+    /**
+     * 丢掉的自写事件数
+     * @return 数量
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * 清掉过期的登记
+     */
+    @Scheduled(fixedDelayString = "${great-plan.write-intent.ttl}")
+    public void purge() {
+        long now = System.currentTimeMillis();
+        intents.entrySet().removeIf(entry -> entry.getValue().expiresAt() < now);
+    }
+
+    /**
+     * 登记表的键（绝对路径，去掉./..）
+     * @param path 文件路径
+     * @return 键
+     */
+    private Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.pluginsTools;
+
+import com.sun.source.util.JavacTask;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.tools.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 编译守护<br/>
+ * 常驻的编译服务：编译器只取一次，标准文件管理器编完不关，放回池子给下次用（打开的jar包，解析好的类路径，目录列表这些缓存都留着）。
+ * 启动时在后台先拿一段小源码把池子里的每个文件管理器编一遍，JDK和主程序类路径的索引提前建好，javac自己的代码也先跑热。
+ * 一个文件管理器同时只给一个编译用，池子多大就最多同时编几个插件。
+ * 每次编译记下耗时（总的和每个插件的：次数，上次，平均，最大）。
+ */
+@Slf4j
+@Component
+public class CompilerDaemon {
+    /**
+     * 耗时统计<br/>
+     * 内部类，一个插件一份，再加一份总的。
+     */
+    private static class Latency {
+        /**
+         * 次数
+         */
+        private long count;
+
+        /**
+         * 总耗时（ms）
+         */
+        private long total;
+
+        /**
+         * 上次耗时（ms）
+         */
+        private long last;
+
+        /**
+         * 最大耗时（ms）
+         */
+        private long max;
+
+        /**
+         * 记一次
+         * @param millis 耗时（ms）
+         */
+        private synchronized void record(long millis) {
+            count++;
+            total += millis;
+            last = millis;
+            max = Math.max(max, millis);
+        }
+
+        /**
+         * 转成统计表
+         * @return 统计表
+         */
+        private synchronized Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("lastMs", last);
+            map.put("avgMs", count == 0 ? 0 : total / count);
+            map.put("maxMs", max);
+            return map;
+        }
+    }
+
+    /**
+     * 文件管理器池的大小（最多同时编几个插件）
+     */
+    @Value("${great-plan.plugin.compile.file-managers}")
+    private Integer fileManagers;
+
+    /**
+     * 启动时是否预热
+     */
+    @Value("${great-plan.plugin.compile.warm-up}")
+    private Boolean warmUp;
+
+    /**
+     * 编译器（没有JDK为null）
+     */
+    private JavaCompiler compiler;
+
+    /**
+     * 主程序类路径
+     */
+    private List<File> appClasspath;
+
+    /**
+     * 空闲的文件管理器（后进先出，最近用过的最热）
+     */
+    private final BlockingDeque<StandardJavaFileManager> idle = new LinkedBlockingDeque<>();
+
+    /**
+     * 已创建的文件管理器数
+     */
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * 总的编译耗时
+     */
+    private final Latency total = new Latency();
+
+    /**
+     * 每个插件的编译耗时：<插件名, 耗时统计>
+     */
+    private final Map<String, Latency> plugins = new ConcurrentHashMap<>();
+
+    /**
+     * 预热耗时（ms），还没预热完为-1
+     */
+    private volatile long warmUpMillis = -1;
+
+    /**
+     * 取编译器，后台预热
+     */
+    @PostConstruct
+    public void init() {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            log.error("__________未找到Java编译器，确保使用JDK运行");
+            return;
+        }
+        appClasspath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                appClasspath.add(new File(entry));
+            }
+        }
+        if (warmUp) {
+            Thread thread = new Thread(this::warmUp, "Compiler-Warm-Up");
+            // 别因为这玩意卡住程序退出
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * 关掉池子里的文件管理器
+     */
+    @PreDestroy
+    public void destroy() {
+        StandardJavaFileManager fileManager;
+        while ((fileManager = idle.poll()) != null) {
+            discard(fileManager);
+        }
+    }
+
+    /**
+     * 编译<br/>
+     * 从池子里借一个文件管理器，包上内存文件管理器编，编完还回去。池子借空了就等别人还。
+     * @param pluginName 插件名（记耗时用）
+     * @param files 需要编译的文件集合（绝对路径）
+     * @param classpath 以前编过的类：<类名, 字节码>
+     * @param outputs 编出来的类：<源文件绝对路径, 类名集合>
+     * @param compiled 编出来的字节码：<类名, 字节码>
+     * @return 依赖记录器（编译失败为null）
+     */
+    public DependencyRecorder compile(String pluginName, Collection<String> files, Map<String, byte[]> classpath,
+                                      Map<String, Set<String>> outputs, Map<String, byte[]> compiled) {
+        if (compiler == null) {
+            log.error("__________未找到Java编译器，确保使用JDK运行");
+            throw new IllegalStateException();
+        }
+        long start = System.currentTimeMillis();
+        StandardJavaFileManager fileManager = acquire();
+        boolean healthy = false;
+        try {
+            // 配置编译任务
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            // 包一层，类文件不落盘（这层不能关，一关就把池子里的也关了）
+            MemoryFileManager memoryManager = new MemoryFileManager(fileManager, classpath);
+            // 将.java文件集合转为编译单元（任务单元）
+            Iterable<? extends JavaFileObject> compilationUnits = fileManager.getJavaFileObjectsFromStrings(files);
+            // 类路径在文件管理器创建时就设好了，不用再传
+            JavacTask task = (JavacTask) compiler.getTask(null, memoryManager, diagnostics, null, null, compilationUnits);
+            DependencyRecorder recorder = new DependencyRecorder(task);
+            task.addTaskListener(recorder);
+            // 执行编译任务并获取任务执行结果
+            boolean success = task.call();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                    log.error("__________编译错误：{}", diagnostic);
+                }
+            }
+            healthy = true;
+            if (!success) {
+                return null;
+            }
+            outputs.putAll(memoryManager.getOutputs());
+            compiled.putAll(memoryManager.getCompiled());
+            return recorder;
+        } finally {
+            release(fileManager, healthy);
+            long millis = System.currentTimeMillis() - start;
+            if (pluginName != null) {
+                total.record(millis);
+                plugins.computeIfAbsent(pluginName, k -> new Latency()).record(millis);
+            }
+        }
+    }
+
+    /**
+     * 编译耗时统计
+     * @return 统计表（总的，每个插件的，预热，文件管理器）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("total", total.toMap());
+        Map<String, Map<String, Long>> perPlugin = new TreeMap<>();
+        plugins.forEach((name, latency) -> perPlugin.put(name, latency.toMap()));
+        stats.put("plugins", perPlugin);
+        stats.put("warmUpMs", warmUpMillis);
+        stats.put("fileManagers", created.get());
+        stats.put("idleFileManagers", idle.size());
+        return stats;
+    }
+
+    /**
+     * 预热<br/>
+     * 先把池子填满，再拿一段用到常用类（集合，流，lambda）的小源码每个都编一遍。
+     */
+    private void warmUp() {
+        long start = System.currentTimeMillis();
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("great-plan-warm-up");
+            Path source = dir.resolve("WarmUp.java");
+            Files.writeString(source, """
+                    import java.util.*;
+                    import java.util.stream.*;
+                    public class WarmUp {
+                        public Map<Integer, List<String>> run(List<String> names) {
+                            Runnable task = () -> System.out.println(names);
+                            task.run();
+                            return names.stream().filter(Objects::nonNull).collect(Collectors.groupingBy(String::length));
+                        }
+                    }
+                    """);
+            List<StandardJavaFileManager> borrowed = new ArrayList<>();
+            try {
+                for (int i = 0; i < fileManagers; i++) {
+                    // 借不到（正被插件编译用着，池子也建满了）就不管它了，那个已经热了
+                    StandardJavaFileManager fileManager = idle.poll();
+                    if (fileManager == null && reserve()) {
+                        fileManager = create();
+                    }
+                    if (fileManager != null) {
+                        borrowed.add(fileManager);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // 新建失败的名额create自己还了，已经借到的还回去
+                borrowed.forEach(idle::push);
+                throw e;
+            }
+            int warmed = 0;
+            for (StandardJavaFileManager fileManager : borrowed) {
+                // 每个都要还回去或者扔掉，不然名额占着，借的人会一直等
+                boolean healthy = false;
+                try {
+                    MemoryFileManager memoryManager = new MemoryFileManager(fileManager, Map.of());
+                    compiler.getTask(null, memoryManager, new DiagnosticCollector<>(), null, null,
+                            fileManager.getJavaFileObjects(source)).call();
+                    healthy = true;
+                    warmed++;
+                } catch (RuntimeException e) {
+                    log.warn("__________文件管理器预热失败，已丢弃", e);
+                } finally {
+                    release(fileManager, healthy);
+                }
+            }
+            warmUpMillis = System.currentTimeMillis() - start;
+            log.info("__________编译器预热完成，{}个文件管理器，耗时{}ms", warmed, warmUpMillis);
+        } catch (IOException | RuntimeException e) {
+            log.error("__________编译器预热失败", e);
+        } finally {
+            if (dir != null) {
+                dir.resolve("WarmUp.java").toFile().delete();
+                dir.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * 借文件管理器<br/>
+     * 有空闲的拿空闲的，没有又还没建满就新建一个，建满了就等（等一会再看看，有被扔掉的就能新建了）。
+     * @return 文件管理器
+     */
+    private StandardJavaFileManager acquire() {
+        try {
+            while (true) {
+                StandardJavaFileManager fileManager = idle.poll();
+                if (fileManager != null) {
+                    return fileManager;
+                }
+                if (reserve()) {
+                    return create();
+                }
+                fileManager = idle.poll(1, TimeUnit.SECONDS);
+                if (fileManager != null) {
+                    return fileManager;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 还文件管理器<br/>
+     * 编译中途抛了异常的不知道还好不好，关掉不要了。
+     * @param fileManager 文件管理器
+     * @param healthy 是否正常编完
+     */
+    private void release(StandardJavaFileManager fileManager, boolean healthy) {
+        if (healthy) {
+            idle.push(fileManager);
+        } else {
+            discard(fileManager);
+        }
+    }
+
+    /**
+     * 占一个新建的名额
+     * @return 池子没建满，占到了
+     */
+    private boolean reserve() {
+        int count;
+        do {
+            count = created.get();
+            if (count >= fileManagers) {
+                return false;
+            }
+        } while (!created.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * 新建文件管理器<br/>
+     * 要先占到名额，类路径在这里一次设好。建不出来名额还回去。
+     * @return 文件管理器
+     */
+    private StandardJavaFileManager create() {
+        StandardJavaFileManager fileManager;
+        try {
+            fileManager = compiler.getStandardFileManager(null, null, null);
+        } catch (RuntimeException e) {
+            created.decrementAndGet();
+            throw e;
+        }
+        try {
+            fileManager.setLocation(StandardLocation.CLASS_PATH, appClasspath);
+        } catch (IOException e) {
+            discard(fileManager);
+            throw new RuntimeException(e);
+        }
+        return fileManager;
+    }
+
+    /**
+     * 关掉文件管理器
+     * @param fileManager 文件管理器
+     */
+    private void discard(StandardJavaFileManager fileManager) {
+        created.decrementAndGet();
+        try {
+            fileManager.close();
+        } catch (IOException e) {
+            log.warn("__________文件管理器关闭失败", e);
+        }
+    }
+}
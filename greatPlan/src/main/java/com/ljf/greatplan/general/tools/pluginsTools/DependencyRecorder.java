@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.pluginsTools;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.util.*;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 依赖记录器<br/>
+ * 挂在javac的编译任务上，在每个源文件分析完（类型都解析好了）时记下：它声明了哪些顶层类，引用了哪些顶层类。
+ * 引用是按解析后的符号算的（不是按import的文字），同包不写import的，静态导入的，全限定名写的都算；
+ * 引用到的成员（方法，字段，常量）算到它所在的顶层类头上，常量被内联了也不会漏。
+ * 只记一次编译里参与编译的源文件，没参与的沿用上次记的。
+ */
+public class DependencyRecorder implements TaskListener {
+    /**
+     * 语法树工具
+     */
+    private final Trees trees;
+
+    /**
+     * 每个源文件声明的顶层类：<源文件绝对路径, 类名集合>
+     */
+    private final Map<String, Set<String>> declared = new HashMap<>();
+
+    /**
+     * 每个源文件引用的顶层类：<源文件绝对路径, 类名集合>
+     */
+    private final Map<String, Set<String>> referenced = new HashMap<>();
+
+    /**
+     * 构造器
+     * @param task 编译任务
+     */
+    public DependencyRecorder(JavacTask task) {
+        this.trees = Trees.instance(task);
+    }
+
+    /**
+     * 每个源文件声明的顶层类
+     * @return <源文件绝对路径, 类名集合>
+     */
+    public Map<String, Set<String>> getDeclared() {
+        return declared;
+    }
+
+    /**
+     * 每个源文件引用的顶层类
+     * @return <源文件绝对路径, 类名集合>
+     */
+    public Map<String, Set<String>> getReferenced() {
+        return referenced;
+    }
+
+    @Override
+    public void started(TaskEvent event) {
+    }
+
+    /**
+     * 分析完一个顶层类<br/>
+     * 一个源文件有几个顶层类就来几次，整个源文件的语法树只扫第一次。
+     * @param event 编译事件
+     */
+    @Override
+    public void finished(TaskEvent event) {
+        if (event.getKind() != TaskEvent.Kind.ANALYZE || event.getCompilationUnit() == null) {
+            return;
+        }
+        CompilationUnitTree unit = event.getCompilationUnit();
+        String source = Paths.get(unit.getSourceFile().toUri()).toFile().getAbsolutePath();
+        if (event.getTypeElement() != null) {
+            declared.computeIfAbsent(source, k -> new HashSet<>()).add(event.getTypeElement().getQualifiedName().toString());
+        }
+        if (referenced.containsKey(source)) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        referenced.put(source, names);
+        new TreePathScanner<Void, Void>() {
+            @Override
+            public Void visitIdentifier(IdentifierTree node, Void unused) {
+                record(names);
+                return super.visitIdentifier(node, unused);
+            }
+
+            @Override
+            public Void visitMemberSelect(MemberSelectTree node, Void unused) {
+                record(names);
+                return super.visitMemberSelect(node, unused);
+            }
+
+            /**
+             * 记下当前位置解析出来的符号所在的顶层类
+             * @param names 引用的类名集合
+             */
+            private void record(Set<String> names) {
+                Element element = trees.getElement(getCurrentPath());
+                String topLevel = element == null ? null : topLevelOf(element);
+                if (topLevel != null) {
+                    names.add(topLevel);
+                }
+            }
+        }.scan(unit, null);
+    }
+
+    /**
+     * 找符号所在的顶层类<br/>
+     * 一路往外找，直到直接挂在包下面的那个类。
+     * @param element 符号
+     * @return 顶层类全限定名（包，模块这些不在类里的为null）
+     */
+    private String topLevelOf(Element element) {
+        Element current = element;
+        while (current != null
+                && !(current instanceof TypeElement && current.getEnclosingElement() instanceof PackageElement)) {
+            current = current.getEnclosingElement();
+        }
+        return current == null ? null : ((TypeElement) current).getQualifiedName().toString();
+    }
+}
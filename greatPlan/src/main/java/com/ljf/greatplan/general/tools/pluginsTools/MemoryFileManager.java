@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.pluginsTools;
+
+import javax.tools.*;
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * 内存文件管理器<br/>
+ * 包在javac的标准文件管理器外面：编出来的类文件不落盘，字节码直接收进内存；
+ * 以前编过的类（内存里的）也从这里交给javac当类路径，增量编译时没重编的类照样能被引用到。
+ * 顺便记下每个类是从哪个源文件编出来的。
+ */
+public class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    /**
+     * 内存里的类文件<br/>
+     * 内部类，编译输出写进来，类路径上的从这里读。
+     */
+    private static class MemoryClassFile extends SimpleJavaFileObject {
+        /**
+         * 类名
+         */
+        private final String className;
+
+        /**
+         * 字节码（输出的写完才有）
+         */
+        private byte[] bytes;
+
+        /**
+         * 写完后收字节码的地方（类路径上的为null）
+         */
+        private final Map<String, byte[]> sink;
+
+        /**
+         * 构造器
+         * @param className 类名
+         * @param bytes 字节码
+         * @param sink 写完后收字节码的地方
+         */
+        MemoryClassFile(String className, byte[] bytes, Map<String, byte[]> sink) {
+            super(URI.create("mem:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+            this.className = className;
+            this.bytes = bytes;
+            this.sink = sink;
+        }
+
+        @Override
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    bytes = toByteArray();
+                    sink.put(className, bytes);
+                }
+            };
+        }
+    }
+
+    /**
+     * 以前编过的类：<类名, 字节码>（只读，当类路径）
+     */
+    private final Map<String, byte[]> classpath;
+
+    /**
+     * 这次编出来的类：<类名, 字节码>
+     */
+    private final Map<String, byte[]> compiled = new HashMap<>();
+
+    /**
+     * 这次编出来的类：<源文件绝对路径, 类名集合>
+     */
+    private final Map<String, Set<String>> outputs = new HashMap<>();
+
+    /**
+     * 构造器
+     * @param fileManager 标准文件管理器
+     * @param classpath 以前编过的类
+     */
+    public MemoryFileManager(StandardJavaFileManager fileManager, Map<String, byte[]> classpath) {
+        super(fileManager);
+        this.classpath = classpath;
+    }
+
+    /**
+     * 这次编出来的类
+     * @return <类名, 字节码>
+     */
+    public Map<String, byte[]> getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * 这次编出来的类
+     * @return <源文件绝对路径, 类名集合>
+     */
+    public Map<String, Set<String>> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * 给javac输出文件<br/>
+     * 类文件给内存里的，其它的照旧。
+     */
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (kind != JavaFileObject.Kind.CLASS) {
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+        }
+        if (sibling != null) {
+            outputs.computeIfAbsent(Paths.get(sibling.toUri()).toFile().getAbsolutePath(), k -> new HashSet<>()).add(className);
+        }
+        return new MemoryClassFile(className, null, compiled);
+    }
+
+    /**
+     * 列出包里的文件<br/>
+     * 类路径上先给内存里的（插件的类要盖过主程序类路径上同名的），再给标准的。
+     */
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+        Iterable<JavaFileObject> standard = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS) || classpath.isEmpty()) {
+            return standard;
+        }
+        List<JavaFileObject> result = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : classpath.entrySet()) {
+            String className = entry.getKey();
+            int dot = className.lastIndexOf('.');
+            String pkg = dot < 0 ? "" : className.substring(0, dot);
+            if (pkg.equals(packageName) || (recurse && (packageName.isEmpty() || pkg.startsWith(packageName + ".")))) {
+                result.add(new MemoryClassFile(className, entry.getValue(), null));
+            }
+        }
+        standard.forEach(result::add);
+        return result;
+    }
+
+    /**
+     * 推断类名<br/>
+     * 内存里的直接给类名。
+     */
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof MemoryClassFile memoryClassFile) {
+            return memoryClassFile.className;
+        }
+        return super.inferBinaryName(location, file);
+    }
+}
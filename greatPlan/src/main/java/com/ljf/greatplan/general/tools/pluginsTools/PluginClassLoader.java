@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.pluginsTools;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * 插件类加载器<br/>
+ * 一次热编译一代：这一代只定义这次重新编译过（和受牵连）的类，其它类交给上一代（上一代再交给更早的，最早的交给主程序）。
+ * 没改的类还是原来那个类对象，不用重新加载；改了的类自己先加载，不走上一代（上一代里是旧版本）。
+ * 字节码从哪来由编译器给（按类名取），这里只管定义。
+ */
+public class PluginClassLoader extends ClassLoader {
+    static {
+        registerAsParallelCapable();
+    }
+
+    /**
+     * 第几代
+     */
+    private final int generation;
+
+    /**
+     * 这一代自己定义的类名
+     */
+    private final Set<String> owned;
+
+    /**
+     * 按类名取字节码
+     */
+    private final Function<String, byte[]> bytecode;
+
+    /**
+     * 构造器
+     * @param pluginName 插件名
+     * @param generation 第几代
+     * @param owned 这一代自己定义的类名
+     * @param bytecode 按类名取字节码
+     * @param parent 上一代（第一代是主程序的类加载器）
+     */
+    public PluginClassLoader(String pluginName, int generation, Set<String> owned, Function<String, byte[]> bytecode, ClassLoader parent) {
+        super("plugin-" + pluginName + "-" + generation, parent);
+        this.generation = generation;
+        this.owned = owned;
+        this.bytecode = bytecode;
+    }
+
+    /**
+     * 第几代
+     * @return 代数
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * 加载类<br/>
+     * 自己的类自己先来，其它的照常交给上一代。
+     * @param name 类名
+     * @param resolve 是否链接
+     * @return 类对象
+     * @throws ClassNotFoundException 找不到
+     */
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!owned.contains(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            if (clazz == null) {
+                clazz = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+    }
+
+    /**
+     * 定义自己的类
+     * @param name 类名
+     * @return 类对象
+     * @throws ClassNotFoundException 不是自己的，或者取不到字节码
+     */
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] bytes = owned.contains(name) ? bytecode.apply(name) : null;
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    /**
+     * 读类文件资源<br/>
+     * Spring解析配置类时会按资源读类文件（拿@Bean方法的顺序），自己的类直接给字节码。
+     * @param name 资源名
+     * @return 输入流
+     */
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (name.endsWith(".class")) {
+            String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+            if (owned.contains(className)) {
+                byte[] bytes = bytecode.apply(className);
+                if (bytes != null) {
+                    return new ByteArrayInputStream(bytes);
+                }
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+}
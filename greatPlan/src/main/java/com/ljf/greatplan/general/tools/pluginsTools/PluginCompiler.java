@@ -9,55 +9,139 @@ package com.ljf.greatplan.general.tools.pluginsTools;
 
 import com.ljf.greatplan.general.tools.generalTools.FileIO;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import javax.tools.*;
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 插件编译器<br/>
- * 用于在运行时将新加入的插件源码编译掉
+ * 用于在运行时将新加入的插件源码编译掉。
+ * 编译是增量的：每个插件记着每个源文件的（修改时间，大小），编出了哪些类，声明和引用了哪些顶层类（编译时由依赖记录器记下）。
+ * 再编译时只编改了的源文件和（直接或间接）引用了它们的源文件，其它类的字节码留着当类路径用。
+ * 加载也是增量的：新一代类加载器只定义这次编过的类，没动的类还是原来的类对象；代数多了就整个重新加载一次，免得旧版本的类一直攒着。
+ * 编译和加载都在内存里完成（字节码由内存文件管理器收下，类加载器直接拿去定义），out-classes只是按配置顺手存一份。
  */
 @Slf4j
 @Component
 public class PluginCompiler {
+    /**
+     * 源文件状态（修改时间，大小）
+     */
+    private record SourceState(long lastModified, long size) {}
+
+    /**
+     * 插件的编译状态<br/>
+     * 内部类，一个插件一个，编译时锁住它。
+     */
+    private static class PluginBuild {
+        /**
+         * 上次编译时的源文件状态：<源文件绝对路径, 状态>
+         */
+        private final Map<String, SourceState> sources = new HashMap<>();
+
+        /**
+         * 每个源文件编出来的类：<源文件绝对路径, 类名集合>（含内部类）
+         */
+        private final Map<String, Set<String>> classes = new HashMap<>();
+
+        /**
+         * 每个源文件声明的顶层类
+         */
+        private final Map<String, Set<String>> declared = new HashMap<>();
+
+        /**
+         * 每个源文件引用的顶层类
+         */
+        private final Map<String, Set<String>> referenced = new HashMap<>();
+
+        /**
+         * 编出来的字节码：<类名, 字节码>
+         */
+        private final Map<String, byte[]> bytecode = new HashMap<>();
+
+        /**
+         * 已加载的类：<类名, 类对象>
+         */
+        private final Map<String, Class<?>> loaded = new LinkedHashMap<>();
+
+        /**
+         * 最新一代类加载器（还没编过为null）
+         */
+        private PluginClassLoader loader;
+    }
+
     /**
      * 文件IO工具类
      */
     private FileIO fileIO;
 
+    /**
+     * 编译守护
+     */
+    private CompilerDaemon compilerDaemon;
+
+    /**
+     * 最多叠几代类加载器，超了就整个重新加载
+     */
+    @Value("${great-plan.plugin.compile.max-generations}")
+    private Integer maxGenerations;
+
+    /**
+     * 是否把编出来的类文件存到插件的out-classes目录
+     */
+    @Value("${great-plan.plugin.compile.persist-classes}")
+    private Boolean persistClasses;
+
+    /**
+     * 所有插件的编译状态：<插件目录绝对路径, 编译状态>
+     */
+    private final Map<String, PluginBuild> builds = new ConcurrentHashMap<>();
+
     /**
      * 构造器
      * @param fileIO 文件IO工具类
+     * @param compilerDaemon 编译守护
      */
-    public PluginCompiler(FileIO fileIO) {
+    public PluginCompiler(FileIO fileIO, CompilerDaemon compilerDaemon) {
         this.fileIO = fileIO;
+        this.compilerDaemon = compilerDaemon;
     }
 
     /**
      * 源码热编译器<br/>
-     * 用于加载给定的目录，并将其中所有的java做成class
+     * 用于加载给定的目录，把其中改过的java编成class，返回插件的所有class对象（没改的还是原来那个）。
      * @param pluginDir 有需要编译为class文件的文件的目录
      * @return 编译后的class对象集合
      */
     public List<Class<?>> sourceHotCompiler(File pluginDir) {
-        // 检查这个目录是否存在
-        if (!pluginDir.exists()) {
-            log.error("__________不存在的目录：{}", pluginDir.getAbsolutePath());
-            throw new RuntimeException();
-        }
-
         // 延迟半秒，但凡电脑太快，文件还没复制完监听就抓到目录出现了，扫目录就啥都找不到了
         try {
             Thread.sleep(500);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
+        return sourceCompiler(pluginDir);
+    }
+
+    /**
+     * 源码编译器<br/>
+     * 和热编译器一样，只是不等文件复制完（启动时插件早就在那了）。
+     * @param pluginDir 有需要编译为class文件的文件的目录
+     * @return 编译后的class对象集合
+     */
+    public List<Class<?>> sourceCompiler(File pluginDir) {
+        // 检查这个目录是否存在
+        if (!pluginDir.exists()) {
+            log.error("__________不存在的目录：{}", pluginDir.getAbsolutePath());
+            throw new RuntimeException();
+        }
         // 所有.java文件集合
         List<File> javaFiles = fileIO.fileCollector(pluginDir, ".java");
 
@@ -67,97 +151,242 @@ public class PluginCompiler {
             return Collections.emptyList();
         }
 
-        // 编译输出路径（插件自己独立的class输出目录）
-        File outputDir = new File(pluginDir, "out-classes");
-        if (!outputDir.exists()) outputDir.mkdirs();
+        PluginBuild build = builds.computeIfAbsent(pluginDir.getAbsolutePath(), k -> new PluginBuild());
+        synchronized (build) {
+            return compile(pluginDir, javaFiles, build);
+        }
+    }
 
-        // 判断任执行结果
-        if (!startCompiler(javaFiles, outputDir)) {
-            log.error("__________插件{}编译失败", pluginDir.getName());
-            throw new RuntimeException();
+    /**
+     * 获取插件当前的类加载器
+     * @param pluginDir 插件目录
+     * @return 最新一代类加载器（没编过为null）
+     */
+    public ClassLoader getClassLoader(File pluginDir) {
+        PluginBuild build = builds.get(pluginDir.getAbsolutePath());
+        return build == null ? null : build.loader;
+    }
+
+    /**
+     * 增量编译并加载<br/>
+     * 要在持有插件编译状态的锁时调用。
+     * @param pluginDir 插件目录
+     * @param javaFiles 插件的所有源文件
+     * @param build 插件的编译状态
+     * @return 插件的所有class对象
+     */
+    private List<Class<?>> compile(File pluginDir, List<File> javaFiles, PluginBuild build) {
+        long start = System.currentTimeMillis();
+        // 对比源文件状态，找出新的，改过的，删掉的
+        Map<String, SourceState> current = new LinkedHashMap<>();
+        for (File file : javaFiles) {
+            current.put(file.getAbsolutePath(), new SourceState(file.lastModified(), file.length()));
+        }
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, SourceState> entry : current.entrySet()) {
+            if (!entry.getValue().equals(build.sources.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
         }
-        log.info("__________插件{}编译成功", pluginDir.getName());
+        Set<String> removed = new HashSet<>(build.sources.keySet());
+        removed.removeAll(current.keySet());
 
-        // 创建类加载器实例
-        URLClassLoader loader = null;
-        try {
-            // 将编译后的输出路径，和当前类加载器传入（用来实现每个插件均有独立的类加载器，不会交叉污染编译结果）
-            loader = new URLClassLoader(
-                    new URL[]{outputDir.toURI().toURL()},
-                    this.getClass().getClassLoader()
-            );
-        } catch (MalformedURLException e) {
-            throw new RuntimeException(e);
+        boolean full = build.loader == null;
+        if (!full && changed.isEmpty() && removed.isEmpty()) {
+            log.info("__________插件{}没有变化，不用编译", pluginDir.getName());
+            return new ArrayList<>(build.loaded.values());
         }
 
-        // 这回就是扫描编译结果输出目录，把编译后的.class文件拉出来
-        List<File> classFiles = fileIO.fileCollector(outputDir, ".class");
+        // 要编的：全量就是全部，否则是改过的加上引用了它们（和删掉的）的
+        Set<String> affected = full ? new LinkedHashSet<>(current.keySet()) : dependentsOf(build, changed, removed);
+        affected.retainAll(current.keySet());
 
-        // 用于存放最后的所有文件编译后且转换后的class对象
-        List<Class<?>> loadedClasses = new ArrayList<>();
-        // 循环所有编译后文件
-        for (File classFile : classFiles) {
-            // 获取源文件绝对路径与编译输出路径
-            String absolutePath = classFile.getAbsolutePath();
-            String outputPath = outputDir.getAbsolutePath();
+        // 先扔掉要重编的和被删掉的源文件的旧字节码（内部类改名之类的不会留下旧的），全量就整个清空
+        Set<String> stale = new HashSet<>();
+        if (full) {
+            build.bytecode.clear();
+        } else {
+            for (String source : union(affected, removed)) {
+                stale.addAll(build.classes.getOrDefault(source, Set.of()));
+            }
+            build.bytecode.keySet().removeAll(stale);
+        }
 
-            // 统一分隔符
-            absolutePath = absolutePath.replace("\\", "/");
-            outputPath = outputPath.replace("\\", "/");
+        // 判断任执行结果（只删了没人引用的源文件时没有要编的）
+        Map<String, Set<String>> outputs = new HashMap<>();
+        Map<String, byte[]> compiled = new HashMap<>();
+        DependencyRecorder recorder = affected.isEmpty() ? null
+                : compilerDaemon.compile(pluginDir.getName(), affected, build.bytecode, outputs, compiled);
+        if (!affected.isEmpty() && recorder == null) {
+            // 旧字节码已经扔掉了一部分，状态不可信了，下次整个重编
+            build.loader = null;
+            build.sources.clear();
+            log.error("__________插件{}编译失败", pluginDir.getName());
+            throw new RuntimeException();
+        }
+        build.bytecode.putAll(compiled);
 
-            // 去掉前缀路径得到相对路径
-            String relativePath = absolutePath.substring(outputPath.length() + 1);
+        // 记下新的状态
+        for (String source : removed) {
+            build.sources.remove(source);
+            build.classes.remove(source);
+            build.declared.remove(source);
+            build.referenced.remove(source);
+        }
+        for (String source : affected) {
+            build.sources.put(source, current.get(source));
+            build.classes.put(source, outputs.getOrDefault(source, new HashSet<>()));
+            build.declared.put(source, recorder.getDeclared().getOrDefault(source, new HashSet<>()));
+            build.referenced.put(source, recorder.getReferenced().getOrDefault(source, new HashSet<>()));
+        }
+        log.info("__________插件{}编译成功，{}个源文件里编了{}个", pluginDir.getName(), current.size(), affected.size());
 
-            // 转成类名
-            String className = relativePath
-                    .replace("/", ".")
-                    .replaceAll("\\.class$", "");
+        // 新一代类加载器：代数超了就整个重新加载，否则只定义这次编过的类
+        Set<String> allClasses = new LinkedHashSet<>();
+        build.classes.values().forEach(allClasses::addAll);
+        Set<String> owned = new HashSet<>();
+        boolean reloadAll = full || build.loader.getGeneration() + 1 >= maxGenerations;
+        if (reloadAll) {
+            owned.addAll(allClasses);
+        } else {
+            for (String source : affected) {
+                owned.addAll(build.classes.get(source));
+            }
+        }
+        int generation = reloadAll ? 0 : build.loader.getGeneration() + 1;
+        ClassLoader parent = reloadAll ? this.getClass().getClassLoader() : build.loader;
+        // 这一代的字节码单独留一份，之后重编了也不影响这一代
+        Map<String, byte[]> ownBytecode = new HashMap<>();
+        for (String className : owned) {
+            ownBytecode.put(className, build.bytecode.get(className));
+        }
+        PluginClassLoader loader = new PluginClassLoader(pluginDir.getName(), generation, owned, ownBytecode::get, parent);
 
+        // 用于存放最后的所有文件编译后且转换后的class对象
+        Map<String, Class<?>> loaded = new LinkedHashMap<>();
+        for (String className : allClasses) {
+            Class<?> previous = build.loaded.get(className);
+            if (!owned.contains(className) && previous != null) {
+                // 没动过的还是原来那个
+                loaded.put(className, previous);
+                continue;
+            }
             try {
-                // 根据相对路径获取这个文件，并获取它的class对象
-                Class<?> clazz = loader.loadClass(className);
-                // 加入临时容器
-                loadedClasses.add(clazz);
+                loaded.put(className, loader.loadClass(className));
                 log.info("__________已加载：{}", className);
-            } catch (ClassNotFoundException e) {
+            } catch (ClassNotFoundException | LinkageError e) {
                 log.error("__________无法加载：{}", className, e);
             }
         }
-    // 返回所有处理好的class对象
-    return loadedClasses;
+        build.loader = loader;
+        build.loaded.clear();
+        build.loaded.putAll(loaded);
+        log.info("__________插件{}加载完成，第{}代，重新加载{}个类，共{}个类，耗时{}ms",
+                pluginDir.getName(), generation, owned.size(), loaded.size(), System.currentTimeMillis() - start);
+
+        // 加载完了再落盘（只是存一份，加载不靠它）
+        if (persistClasses) {
+            persist(pluginDir, full, stale, compiled);
+        }
+        // 返回所有处理好的class对象
+        return new ArrayList<>(loaded.values());
     }
 
     /**
-     * 启动编译<br/>
-     * 创建并启动编译任务。
-     * @param files 需要编译的文件集合
-     * @param outputDir 编译输出目录
-     * @return 是否成功
-     */
-    private boolean startCompiler(List<File> files, File outputDir) {
-        // 创建编译器实例
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        if (compiler == null) {
-            log.error("__________未找到Java编译器，确保使用JDK运行");
-            throw new IllegalStateException();
-        }
-        // 配置编译任务
-        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
-        // 将.java文件集合转为编译单元（任务单元）
-        Iterable<? extends JavaFileObject> compilationUnits =
-                fileManager.getJavaFileObjectsFromFiles(files);
-        // 指定输出路径
-        List<String> options = Arrays.asList("-d", outputDir.getAbsolutePath());
-        // 创建编译任务（默认输出流, 文件管理器, 不使用自定义诊断监听, 编译参数, 不限制编译目标类名, 源文件集）
-        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null, options, null, compilationUnits);
-        // 执行编译任务并获取任务执行结果
-        boolean success = task.call();
+     * 找出要重编的源文件<br/>
+     * 从改过的和删掉的出发，一层层找引用了它们声明的类的源文件，直到找不到新的。
+     * 间接引用的也要重编：中间那层重编后是新的类对象，引用它的类也得跟着换。
+     * @param build 插件的编译状态
+     * @param changed 改过的（含新的）源文件
+     * @param removed 删掉的源文件
+     * @return 要重编的源文件
+     */
+    private Set<String> dependentsOf(PluginBuild build, Set<String> changed, Set<String> removed) {
+        // <类名, 引用它的源文件>
+        Map<String, Set<String>> referencedBy = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : build.referenced.entrySet()) {
+            for (String className : entry.getValue()) {
+                referencedBy.computeIfAbsent(className, k -> new HashSet<>()).add(entry.getKey());
+            }
+        }
+        Set<String> result = new LinkedHashSet<>(changed);
+        Deque<String> queue = new ArrayDeque<>(union(changed, removed));
+        Set<String> visited = new HashSet<>(queue);
+        while (!queue.isEmpty()) {
+            String source = queue.poll();
+            for (String className : build.declared.getOrDefault(source, Set.of())) {
+                for (String dependent : referencedBy.getOrDefault(className, Set.of())) {
+                    if (visited.add(dependent)) {
+                        result.add(dependent);
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 存类文件<br/>
+     * 把这次编出来的类文件写进插件的out-classes目录，顺便删掉过时的，全量就先整个清空。
+     * 写失败只记日志，不影响已经加载好的类。
+     * @param pluginDir 插件目录
+     * @param full 是否全量
+     * @param stale 过时的类名
+     * @param compiled 编出来的字节码：<类名, 字节码>
+     */
+    private void persist(File pluginDir, boolean full, Set<String> stale, Map<String, byte[]> compiled) {
+        File outputDir = new File(pluginDir, "out-classes");
+        if (!outputDir.exists()) outputDir.mkdirs();
+        if (full) {
+            clearOutput(outputDir);
+        }
         try {
-            // 关闭文件管理器
-            fileManager.close();
+            for (String className : stale) {
+                Files.deleteIfExists(classFile(outputDir, className));
+            }
+            for (Map.Entry<String, byte[]> entry : compiled.entrySet()) {
+                Path classFile = classFile(outputDir, entry.getKey());
+                Files.createDirectories(classFile.getParent());
+                Files.write(classFile, entry.getValue());
+            }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            log.error("__________插件{}的类文件保存失败", pluginDir.getName(), e);
+        }
+    }
+
+    /**
+     * 类文件路径
+     * @param outputDir 编译输出目录
+     * @param className 类名
+     * @return 路径
+     */
+    private Path classFile(File outputDir, String className) {
+        return Paths.get(outputDir.getAbsolutePath(), className.replace('.', File.separatorChar) + ".class");
+    }
+
+    /**
+     * 清空编译输出目录里的类文件<br/>
+     * 全量编译前用，上次运行留下的旧类文件不能混进类路径。
+     * @param outputDir 编译输出目录
+     */
+    private void clearOutput(File outputDir) {
+        for (File classFile : FileIO.fileCollector(outputDir, ".class")) {
+            if (!classFile.delete()) {
+                log.warn("__________旧类文件删除失败：{}", classFile);
+            }
         }
-        return success;
+    }
+
+    /**
+     * 并集
+     * @param a 集合
+     * @param b 集合
+     * @return 并集
+     */
+    private Set<String> union(Set<String> a, Set<String> b) {
+        Set<String> result = new LinkedHashSet<>(a);
+        result.addAll(b);
+        return result;
     }
 }
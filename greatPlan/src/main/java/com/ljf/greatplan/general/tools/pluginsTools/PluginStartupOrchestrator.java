@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+package com.ljf.greatplan.general.tools.pluginsTools;
+
+import com.ljf.greatplan.core.entity.PluginStartupTimeline;
+import com.ljf.greatplan.core.enums.PluginStartupStatus;
+import com.ljf.greatplan.general.tools.generalTools.FileIO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 插件启动编排器<br/>
+ * 启动完成后把插件源码目录下的每个插件都找出来，放到有上限的线程池里并行编译，编完各自马上挂子容器（子容器也是并行刷新的）。
+ * 不走热编译那半秒的等待（启动时插件早就放好了）；同时编几个还受编译守护的文件管理器池限制。
+ * 主程序已经带着的插件（组件扫描已经注册进主容器了）不再挂，免得请求接口重复注册；已经被挂上的也不再挂。
+ * 每个插件记一条时间线（编译和挂载的起止时刻），可以拿去看谁拖慢了启动。
+ */
+@Slf4j
+@Component
+public class PluginStartupOrchestrator {
+    /**
+     * 源文件里的包声明
+     */
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+    /**
+     * 插件源码地址
+     */
+    @Value("${great-plan.plugin.source-dir}")
+    private String pluginSourceDir;
+
+    /**
+     * 启动时是否编排插件
+     */
+    @Value("${great-plan.plugin.startup.enabled}")
+    private Boolean enabled;
+
+    /**
+     * 编排线程数
+     */
+    @Value("${great-plan.plugin.startup.threads}")
+    private Integer threads;
+
+    /**
+     * 应用程序上下文（父容器）
+     */
+    private final ApplicationContext parentContext;
+
+    /**
+     * 插件编译器
+     */
+    private final PluginCompiler pluginCompiler;
+
+    /**
+     * 子容器管理器
+     */
+    private final SubContainersManager subContainersManager;
+
+    /**
+     * 每个插件的时间线：<插件名, 时间线>（按发现顺序）
+     */
+    private final Map<String, PluginStartupTimeline> timelines = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * 编排开始时刻
+     */
+    private volatile long startedAt;
+
+    /**
+     * 编排总耗时（ms），还没编排完为-1
+     */
+    private volatile long totalMillis = -1;
+
+    /**
+     * 构造器
+     * @param parentContext 应用程序上下文（父容器）
+     * @param pluginCompiler 插件编译器
+     * @param subContainersManager 子容器管理器
+     */
+    public PluginStartupOrchestrator(ApplicationContext parentContext, PluginCompiler pluginCompiler, SubContainersManager subContainersManager) {
+        this.parentContext = parentContext;
+        this.pluginCompiler = pluginCompiler;
+        this.subContainersManager = subContainersManager;
+    }
+
+    /**
+     * 编排启动<br/>
+     * 主容器就绪后（请求映射表已经有了）开始，等所有插件都处理完才返回。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        File[] pluginDirs = new File(pluginSourceDir).listFiles(File::isDirectory);
+        if (pluginDirs == null || pluginDirs.length == 0) {
+            log.info("__________插件源码目录下没有插件：{}", pluginSourceDir);
+            totalMillis = 0;
+            return;
+        }
+        startedAt = System.currentTimeMillis();
+        for (File pluginDir : pluginDirs) {
+            timelines.put(pluginDir.getName(), new PluginStartupTimeline(pluginDir.getName()));
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, pluginDirs.length), r -> {
+            Thread thread = new Thread(r, "Plugin-Startup-" + counter.incrementAndGet());
+            // 别因为这玩意卡住程序退出
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (File pluginDir : pluginDirs) {
+            futures.add(pool.submit(() -> startPlugin(pluginDir, timelines.get(pluginDir.getName()))));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // startPlugin自己兜住了，到不了这
+                log.error("__________插件启动编排异常", e.getCause());
+            }
+        }
+        pool.shutdown();
+        totalMillis = System.currentTimeMillis() - startedAt;
+        log.info("__________插件启动编排完成，{}个插件，耗时{}ms", pluginDirs.length, totalMillis);
+    }
+
+    /**
+     * 插件启动时间线
+     * @return 编排总耗时和每个插件的时间线
+     */
+    public Map<String, Object> getTimeline() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalMs", totalMillis);
+        synchronized (timelines) {
+            result.put("plugins", new ArrayList<>(timelines.values()));
+        }
+        return result;
+    }
+
+    /**
+     * 启动一个插件<br/>
+     * 编译，再挂子容器，每一步记进时间线，出错只记下不往外抛。
+     * @param pluginDir 插件目录
+     * @param timeline 时间线
+     */
+    private void startPlugin(File pluginDir, PluginStartupTimeline timeline) {
+        String pluginName = pluginDir.getName();
+        try {
+            List<File> javaFiles = FileIO.fileCollector(pluginDir, ".java");
+            if (javaFiles.isEmpty()) {
+                timeline.setStatus(PluginStartupStatus.EMPTY);
+                return;
+            }
+            if (isBuiltIn(javaFiles)) {
+                timeline.setStatus(PluginStartupStatus.BUILT_IN);
+                log.info("__________插件{}主程序已带，不再挂载", pluginName);
+                return;
+            }
+            if (subContainersManager.isMounted(pluginName)) {
+                timeline.setStatus(PluginStartupStatus.SKIPPED);
+                return;
+            }
+
+            timeline.setStatus(PluginStartupStatus.COMPILING);
+            timeline.setCompileStartMs(elapsed());
+            List<Class<?>> classes = pluginCompiler.sourceCompiler(pluginDir);
+            timeline.setCompileEndMs(elapsed());
+            timeline.setClassCount(classes.size());
+
+            timeline.setStatus(PluginStartupStatus.MOUNTING);
+            timeline.setMountStartMs(elapsed());
+            subContainersManager.mountSubContainer(pluginName, classes, pluginDir);
+            timeline.setMountEndMs(elapsed());
+            timeline.setStatus(PluginStartupStatus.MOUNTED);
+            log.info("__________插件{}启动完成，编译{}ms，挂载{}ms", pluginName,
+                    timeline.getCompileEndMs() - timeline.getCompileStartMs(),
+                    timeline.getMountEndMs() - timeline.getMountStartMs());
+        } catch (Exception e) {
+            timeline.setStatus(PluginStartupStatus.FAILED);
+            timeline.setError(String.valueOf(e.getMessage()));
+            log.error("__________插件{}启动失败", pluginName, e);
+        }
+    }
+
+    /**
+     * 是不是主程序自带的插件<br/>
+     * 源文件声明的类在主程序类加载器里找得到，说明已经跟着主程序编译，组件扫描也已经注册过了。
+     * 按包声明和文件名推出类名，只查不加载。
+     * @param javaFiles 插件的所有源文件
+     * @return 是否主程序自带
+     */
+    private boolean isBuiltIn(List<File> javaFiles) {
+        ClassLoader appLoader = parentContext.getClassLoader();
+        for (File javaFile : javaFiles) {
+            String simpleName = javaFile.getName().substring(0, javaFile.getName().length() - ".java".length());
+            String className;
+            try {
+                Matcher matcher = PACKAGE.matcher(Files.readString(javaFile.toPath()));
+                className = matcher.find() ? matcher.group(1) + "." + simpleName : simpleName;
+            } catch (IOException e) {
+                continue;
+            }
+            try {
+                Class.forName(className, false, appLoader);
+                return true;
+            } catch (ClassNotFoundException | LinkageError e) {
+                // 不是主程序的，接着看下一个
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 距编排开始的毫秒数
+     * @return 毫秒数
+     */
+    private long elapsed() {
+        return System.currentTimeMillis() - startedAt;
+    }
+}
@@ -44,6 +44,11 @@ public class SubContainersManager {
      */
     private final ApplicationContext parentContext;
 
+    /**
+     * 插件编译器（取插件的类加载器）
+     */
+    private final PluginCompiler pluginCompiler;
+
     /**
      * 插件独立上下文（子容器）
      */
@@ -57,9 +62,11 @@ public class SubContainersManager {
     /**
      * 构造器
      * @param parentContext 应用程序上下文（父容器）
+     * @param pluginCompiler 插件编译器
      */
-    public SubContainersManager(ApplicationContext parentContext) {
+    public SubContainersManager(ApplicationContext parentContext, PluginCompiler pluginCompiler) {
         this.parentContext = parentContext;
+        this.pluginCompiler = pluginCompiler;
     }
 
     /**
@@ -80,9 +87,12 @@ public class SubContainersManager {
         // 指定输出路径（和插件编译器中的一样，变成豆子后就要进编译目录了）
         File outputDir = new File(pluginDir, "out-classes");
         if (!outputDir.exists()) outputDir.mkdirs();
-        // 继承主容器的类加载器
-        ClassLoader parentLoader = parentContext.getClassLoader();
-        URLClassLoader pluginClassLoader = (new URLClassLoader(new URL[]{outputDir.toURI().toURL()}, parentLoader));
+        // 用插件编译器给这个插件的（最新一代）类加载器，插件的类就是它加载的；没有就继承主容器的类加载器
+        ClassLoader pluginClassLoader = pluginCompiler.getClassLoader(pluginDir);
+        if (pluginClassLoader == null) {
+            ClassLoader parentLoader = parentContext.getClassLoader();
+            pluginClassLoader = new URLClassLoader(new URL[]{outputDir.toURI().toURL()}, parentLoader);
+        }
         pluginContext.setClassLoader(pluginClassLoader);
         // 注册插件中的Bean
         for (Class<?> clazz : pluginClasses) {
@@ -134,6 +144,15 @@ public class SubContainersManager {
         ClearControllerMap(pluginName);
     }
 
+    /**
+     * 子容器是否已挂载
+     * @param pluginName 插件名
+     * @return 是否已挂载
+     */
+    public boolean isMounted(String pluginName) {
+        return pluginContexts.containsKey(pluginName);
+    }
+
     /**
      * 注册controller映射</br>
      * 将指定插件的所有controller中的所有请求接口全部拉出来。
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2025 404
+ * Licensed under the MIT License.
+ * See LICENSE file in the project root for license information.
+ *
+ */
+
+/**
+ * 订阅变更推送<br/>
+ * （导出方法）<br/>
+ * 代替每秒轮询：后端有变化时才会推过来，没变化时连接就静静挂着，不花任何开销。
+ * 断线时浏览器会自己重连，重连上以后断线期间的变化已经丢了，当作落后处理。
+ * @param onDelta 收到一批增量时的回调（参数为增量数组）
+ * @param onResync 需要整个重新同步时的回调（落后了，或者断线重连了）
+ * @returns {EventSource} 推送连接
+ */
+export function subscribeChanges(onDelta, onResync) {
+    // 建立SSE连接
+    const source = new EventSource("/api/file/changes");
+    // 是否已经连上过（第一次连上不用重新同步，页面自己会加载）
+    let opened = false;
+
+    // 连上了
+    source.onopen = () => {
+        // 不是第一次连上就是断线重连，断线期间的变化都没收到
+        if (opened) onResync();
+        opened = true;
+    };
+
+    // 一批增量
+    source.addEventListener("delta", (e) => onDelta(JSON.parse(e.data)));
+
+    // 后端说页面跟不上了，缓冲已经丢掉
+    source.addEventListener("resync", () => onResync());
+
+    // 出错时浏览器会自己重连，这里只记一下
+    source.onerror = () => console.warn("变更推送连接中断，等待重连");
+
+    return source;
+}
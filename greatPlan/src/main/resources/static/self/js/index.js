@@ -393,9 +393,17 @@ async function pollAndSyncTree(container) {
     }
 }
 
-// 启动轮询，每秒一次
+// 不再每秒轮询，有变化时后端推过来再同步
 const treeContainer = document.getElementById("treeContainer");
-setInterval(() => pollAndSyncTree(treeContainer), 1000);
+const changes = new EventSource("/api/file/changes");
+changes.addEventListener("delta", (e) => {
+    const deltas = JSON.parse(e.data);
+    if (deltas.some((d) => d.kind !== "PLUGINS")) pollAndSyncTree(treeContainer);
+    if (deltas.some((d) => d.kind === "PLUGINS")) refreshPlugins();
+});
+changes.addEventListener("resync", () => {
+    pollAndSyncTree(treeContainer);
+    refreshPlugins();
+});
 
 window.addEventListener("DOMContentLoaded", refreshPlugins);
-setInterval(refreshPlugins, 1000);
@@ -5,9 +5,10 @@
  *
  */
 
-import { fetchRootDirectory, mergeAndRepairTree, pollAndSyncTree } from './tree/tree-core.js';
+import { fetchRootDirectory, mergeAndRepairTree, pollAndSyncTree, applyTreeDelta } from './tree/tree-core.js';
 import { refreshPlugins } from './plugins/plugin-manager.js';
 import { fetchStandard } from './core/api.js';
+import { subscribeChanges } from './core/push.js';
 
 // 初始化全局API和状态
 // 创建CoreAPI全局对象，提供日志功能
@@ -51,16 +52,23 @@ document.addEventListener("DOMContentLoaded", () => {
             .catch((error) => console.error("扫描错误:", error.message));
     });
 
-    // 步骤3：启动轮询机制
-    // 每1秒执行一次树状结构同步
-    setInterval(() => pollAndSyncTree(treeContainer), 1000);
+    // 步骤3：订阅变更推送（代替原来的每秒轮询）
+    // 节点树的变化直接应用，插件注册表变了才刷新插件，落后了就整个重新同步一次
+    subscribeChanges(
+        (deltas) => {
+            applyTreeDelta(treeContainer, deltas);
+            if (deltas.some((delta) => delta.kind === "PLUGINS")) refreshPlugins();
+        },
+        () => {
+            pollAndSyncTree(treeContainer);
+            refreshPlugins();
+        }
+    );
 
     // 步骤4：初始化插件系统
-    // 立即执行一次插件刷新
+    // 立即执行一次插件刷新，之后只在推送说插件变了时刷新
     refreshPlugins();
-    // 每1秒执行一次插件刷新检查
-    setInterval(refreshPlugins, 1000);
 });
 
 export { fetchStandard } from './core/api.js';
-export { mergeAndRepairTree, pollAndSyncTree } from './tree/tree-core.js';
+export { mergeAndRepairTree, pollAndSyncTree, applyTreeDelta } from './tree/tree-core.js';
@@ -120,6 +120,7 @@ export function rebuildRootNode(container) {
 /**
  * 轮询并同步树<br/>
  * 就是拉取最新的节点树。
+ * 现在不再定时轮询，只在推送说页面落后了（或断线重连）时调用一次，做整个重新同步。
  * 对比旧树进行节点清理，热度更新和节点父子关系更新。
  * 然后重渲染。
  * @param container 前端节点树的DOM对象
@@ -203,6 +204,65 @@ export async function pollAndSyncTree(container) {
     }
 }
 
+/**
+ * 应用推送增量<br/>
+ * （导出方法）<br/>
+ * 按后端推过来的一批增量直接改前端节点树，不用再把整棵树拉一遍。
+ * 热度变化只改显示，有节点加入或移除时才重建根节点。
+ * @param container 前端节点树的DOM对象
+ * @param deltas 一批增量
+ */
+export function applyTreeDelta(container, deltas) {
+    // 是否有结构变化（要重建）
+    let structural = false;
+
+    // 按顺序应用
+    for (const delta of deltas) {
+        if (delta.kind === "ADDED") {
+            // 遍历加入的节点
+            for (const node of delta.nodes) {
+                const existing = allNodes[node.id];
+                if (!existing) {
+                    // 新来的就塞进前端节点树里
+                    allNodes[node.id] = structuredClone(node);
+                } else {
+                    // 已有的（比如被重新扫描了）以后端为准，但已经拿到的子节点别丢
+                    const childNode = existing.childNode;
+                    Object.assign(existing, structuredClone(node));
+                    if ((!node.childNode || node.childNode.length === 0) && childNode?.length > 0)
+                        existing.childNode = childNode;
+                }
+            }
+            structural = true;
+        } else if (delta.kind === "REMOVED") {
+            // 遍历移除的节点
+            for (const id of delta.ids) {
+                // 根节点不删（和原来的轮询同步一致）
+                if (roots.list.includes(id)) continue;
+                delete allNodes[id];
+            }
+            // 父节点的子节点集里也摘掉
+            const parent = delta.parentId && allNodes[delta.parentId];
+            if (parent?.childNode) {
+                const removed = new Set(delta.ids);
+                parent.childNode = parent.childNode.filter((id) => !removed.has(id));
+            }
+            structural = true;
+        } else if (delta.kind === "HEAT") {
+            // 热度变化只刷新显示
+            for (const id of delta.ids) {
+                if (allNodes[id]) {
+                    allNodes[id].clickHeat = delta.heat;
+                    updateNodeHeatDisplay(id, delta.heat);
+                }
+            }
+        }
+    }
+
+    // 有结构变化才重建
+    if (structural) rebuildRootNode(container);
+}
+
 /**
  * 修复父子引用<br/>
  * 也就是补全节点的父节点与子节点的关系。
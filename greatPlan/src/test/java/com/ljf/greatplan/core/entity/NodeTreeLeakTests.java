@@ -0,0 +1,108 @@
+package com.ljf.greatplan.core.entity;
+
+import com.ljf.greatplan.core.enums.NodeChangeKind;
+import com.ljf.greatplan.core.enums.NodeType;
+import com.ljf.greatplan.general.tools.generalTools.HeatJournal;
+import com.ljf.greatplan.general.tools.generalTools.RingEventBus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 节点树泄漏测试<br/>
+ * 反复长出子树再剪掉，节点树的大小、估算内存、冷却时间轮都要回到基线，不能留孤儿。
+ */
+class NodeTreeLeakTests {
+
+    @Test
+    void pruneCyclesReturnToBaseline() {
+        NodeTree nodeTree = new NodeTree(new HeatJournal(), new RingEventBus());
+        List<NodeChange> changes = new ArrayList<>();
+        nodeTree.addChangeListener(changes::add);
+
+        Node root = dir(nodeTree, "root", null);
+        Node keep = dir(nodeTree, "keep", root);
+        int baselineSize = nodeTree.getTree().size();
+        long baselineBytes = nodeTree.getEstimatedBytes();
+        int baselineTimers = nodeTree.getColdWheel().size();
+
+        for (int cycle = 0; cycle < 50; cycle++) {
+            // 三种剪法轮着来
+            Node branch = grow(nodeTree, "c" + cycle, keep, 4, 3);
+            int grown = nodeTree.getTree().size() - baselineSize;
+            changes.clear();
+
+            int removed = switch (cycle % 3) {
+                case 0 -> nodeTree.removeSubtree(branch.getId());
+                case 1 -> {
+                    nodeTree.delNode(branch);
+                    yield grown;
+                }
+                default -> nodeTree.collapse(keep.getId());
+            };
+
+            assertEquals(grown, removed, "cycle " + cycle);
+            assertEquals(1, changes.size(), "一次剪枝只发一条变更记录");
+            assertEquals(NodeChangeKind.REMOVED, changes.getFirst().getKind());
+            assertEquals(grown, changes.getFirst().getNodes().size());
+            assertEquals(keep.getId(), changes.getFirst().getParentId());
+
+            assertEquals(baselineSize, nodeTree.getTree().size(), "cycle " + cycle);
+            assertEquals(baselineBytes, nodeTree.getEstimatedBytes(), "cycle " + cycle);
+            assertEquals(baselineTimers, nodeTree.getColdWheel().size(), "cycle " + cycle);
+            assertTrue(keep.getChildNode().isEmpty());
+        }
+    }
+
+    @Test
+    void removingMissingNodeIsNoop() {
+        NodeTree nodeTree = new NodeTree(new HeatJournal(), new RingEventBus());
+        List<NodeChange> changes = new ArrayList<>();
+        nodeTree.addChangeListener(changes::add);
+
+        assertEquals(0, nodeTree.removeSubtree("nope"));
+        assertEquals(0, nodeTree.collapse("nope"));
+        assertTrue(changes.isEmpty());
+    }
+
+    /**
+     * 长一棵满树：每层fanOut个目录，每个目录再挂一个文件
+     */
+    private Node grow(NodeTree nodeTree, String id, Node parent, int depth, int fanOut) {
+        Node node = dir(nodeTree, id, parent);
+        file(nodeTree, id + "-f", node);
+        if (depth > 0) {
+            for (int i = 0; i < fanOut; i++) {
+                grow(nodeTree, id + "-" + i, node, depth - 1, fanOut);
+            }
+        }
+        return node;
+    }
+
+    private Node dir(NodeTree nodeTree, String id, Node parent) {
+        DirectoryNode node = new DirectoryNode();
+        node.setNodeType(NodeType.DIRECTORY);
+        return link(nodeTree, node, id, parent);
+    }
+
+    private Node file(NodeTree nodeTree, String id, Node parent) {
+        FileNode node = new FileNode();
+        node.setNodeType(NodeType.File);
+        return link(nodeTree, node, id, parent);
+    }
+
+    private Node link(NodeTree nodeTree, Node node, String id, Node parent) {
+        node.setId(id);
+        node.setName(id);
+        node.setPath("/" + id);
+        if (parent != null) {
+            node.setParentNode(parent.getId());
+            parent.getChildNode().add(id);
+        }
+        nodeTree.addNode(node);
+        return node;
+    }
+}
@@ -0,0 +1,211 @@
+package com.ljf.greatplan.general.timeer;
+
+import com.ljf.greatplan.core.entity.DirectoryNode;
+import com.ljf.greatplan.core.entity.FileNode;
+import com.ljf.greatplan.core.entity.Node;
+import com.ljf.greatplan.core.enums.NodeType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 冷子树收集器测试<br/>
+ * 在合成的宽树和深树上，对比原来的上追加下探和后序记忆化的收集器，结果要一致。
+ * 用取节点的次数衡量工作量（稳定，不受机器影响），不计时。
+ */
+class ColdSubtreeCollectorTests {
+
+    @Test
+    void wideTree() {
+        // 一个根，一个目录，目录下一大片冷文件
+        for (int width : new int[]{250, 500, 1000, 2000}) {
+            Map<String, Node> tree = new HashMap<>();
+            Node root = dir(tree, "root", null);
+            Node dir = dir(tree, "d", root);
+            for (int i = 0; i < width; i++) {
+                file(tree, "f" + i, dir);
+            }
+            compare("wide " + width, tree);
+        }
+    }
+
+    @Test
+    void deepTree() {
+        // 一条目录链，每层挂两个冷文件
+        for (int depth : new int[]{50, 100, 200}) {
+            Map<String, Node> tree = new HashMap<>();
+            Node current = dir(tree, "root", null);
+            for (int i = 0; i < depth; i++) {
+                file(tree, "a" + i, current);
+                file(tree, "b" + i, current);
+                current = dir(tree, "d" + i, current);
+            }
+            compare("deep " + depth, tree);
+        }
+    }
+
+    @Test
+    void hotLeafKeepsItsAncestors() {
+        Map<String, Node> tree = new HashMap<>();
+        Node root = dir(tree, "root", null);
+        Node a = dir(tree, "a", root);
+        Node b = dir(tree, "b", root);
+        file(tree, "a1", a);
+        file(tree, "a2", a);
+        Node hot = file(tree, "b1", b);
+        file(tree, "b2", b);
+        hot.setClickHeat(100);
+
+        List<Node> roots = new ColdSubtreeCollector(tree::get, System.currentTimeMillis()).collect(leaves(tree));
+        assertEquals(Set.of("a1", "a2"), ids(roots));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void fewerLookupsThanLegacyOnWideTree() {
+        // 原来的做法每片叶子都要把兄弟全看一遍，宽度翻倍工作量翻四倍；收集器只随节点数线性涨
+        Map<String, Node> tree = new HashMap<>();
+        Node root = dir(tree, "root", null);
+        Node dir = dir(tree, "d", root);
+        for (int i = 0; i < 2000; i++) {
+            file(tree, "f" + i, dir);
+        }
+        List<Node> leaves = leaves(tree);
+        int[] legacyLookups = {0};
+        for (Node leaf : leaves) {
+            tracedBack(leaf, id -> { legacyLookups[0]++; return tree.get(id); });
+        }
+        int[] lookups = {0};
+        new ColdSubtreeCollector(id -> { lookups[0]++; return tree.get(id); }, System.currentTimeMillis()).collect(leaves);
+        assertTrue(lookups[0] * 100 < legacyLookups[0], "收集器取节点" + lookups[0] + "次，原来" + legacyLookups[0] + "次");
+    }
+
+    /**
+     * 两种做法各跑一遍，结果要一致，收集器的工作量要是线性的
+     */
+    private void compare(String name, Map<String, Node> tree) {
+        List<Node> leaves = leaves(tree);
+        long now = System.currentTimeMillis();
+
+        Set<String> legacy = new HashSet<>();
+        for (Node leaf : leaves) {
+            for (Node node : tracedBack(leaf, tree::get)) {
+                legacy.add(node.getId());
+            }
+        }
+
+        int[] lookups = {0};
+        Function<String, Node> lookup = id -> { lookups[0]++; return tree.get(id); };
+        List<Node> roots = new ColdSubtreeCollector(lookup, now).collect(leaves);
+
+        // 原来的结果是被剪节点的平铺列表，收集器给的是子树根，展开后比较
+        assertEquals(legacy, expand(roots, tree), name);
+        assertEquals(roots.size(), ids(roots).size(), name + " 结果有重复");
+        // 每个节点最多被取常数次
+        assertTrue(lookups[0] <= 4 * tree.size(), name + " 取节点" + lookups[0] + "次");
+    }
+
+    // ———— 原来的上追加下探（照搬，只把节点树换成查找函数） ————
+
+    private List<Node> tracedBack(Node node, Function<String, Node> lookup) {
+        List<Node> delNodes = new ArrayList<>();
+        String parentNodeId = node.getParentNode();
+        if (parentNodeId == null) {
+            return delNodes;
+        }
+        Node parentNode = lookup.apply(parentNodeId);
+        for (String sonId : parentNode.getChildNode()) {
+            if (lookup.apply(sonId).getClickHeat() > 0) {
+                return delNodes;
+            }
+        }
+        for (String sonId : parentNode.getChildNode()) {
+            if (!excavate(lookup.apply(sonId), lookup)) {
+                return delNodes;
+            }
+        }
+        for (String sonId : parentNode.getChildNode()) {
+            delNodes.add(lookup.apply(sonId));
+        }
+        delNodes.addAll(tracedBack(parentNode, lookup));
+        return delNodes;
+    }
+
+    private boolean excavate(Node node, Function<String, Node> lookup) {
+        boolean flag = true;
+        if (node.getNodeType() == NodeType.File) {
+            return node.getClickHeat() <= 0;
+        }
+        for (String n : node.getChildNode()) {
+            Node child = lookup.apply(n);
+            if (child.getClickHeat() > 0) {
+                flag = false;
+            } else {
+                flag = flag && excavate(child, lookup);
+            }
+        }
+        return flag;
+    }
+
+    // ———— 造树 ————
+
+    private Node dir(Map<String, Node> tree, String id, Node parent) {
+        DirectoryNode node = new DirectoryNode();
+        node.setNodeType(NodeType.DIRECTORY);
+        return link(tree, node, id, parent);
+    }
+
+    private Node file(Map<String, Node> tree, String id, Node parent) {
+        FileNode node = new FileNode();
+        node.setNodeType(NodeType.File);
+        return link(tree, node, id, parent);
+    }
+
+    private Node link(Map<String, Node> tree, Node node, String id, Node parent) {
+        node.setId(id);
+        node.setName(id);
+        node.setPath("/" + id);
+        node.setClickHeat(0);
+        if (parent != null) {
+            node.setParentNode(parent.getId());
+            parent.getChildNode().add(id);
+        }
+        tree.put(id, node);
+        return node;
+    }
+
+    private List<Node> leaves(Map<String, Node> tree) {
+        List<Node> leaves = new ArrayList<>();
+        for (Node node : tree.values()) {
+            if (node.getChildNode().isEmpty()) {
+                leaves.add(node);
+            }
+        }
+        return leaves;
+    }
+
+    private Set<String> expand(List<Node> roots, Map<String, Node> tree) {
+        Set<String> ids = new HashSet<>();
+        Deque<Node> stack = new ArrayDeque<>(roots);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            ids.add(node.getId());
+            for (String childId : node.getChildNode()) {
+                stack.push(tree.get(childId));
+            }
+        }
+        return ids;
+    }
+
+    private Set<String> ids(List<Node> nodes) {
+        Set<String> ids = new HashSet<>();
+        for (Node node : nodes) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+}
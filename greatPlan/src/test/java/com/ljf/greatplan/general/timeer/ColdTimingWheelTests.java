@@ -0,0 +1,67 @@
+package com.ljf.greatplan.general.timeer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 冷却时间轮测试<br/>
+ * 当前格里还没到期的，下一次推进要再看一遍，不能等一整圈。
+ */
+class ColdTimingWheelTests {
+
+    private static final long TICK = 1000;
+
+    @Test
+    void timerLaterInCurrentTickFiresOnNextAdvance() {
+        ColdTimingWheel wheel = new ColdTimingWheel(TICK, 512);
+        long now = System.currentTimeMillis();
+        wheel.schedule("n", now + TICK / 2);
+
+        assertEquals(List.of(), wheel.advance(now));
+        assertEquals(List.of("n"), wheel.advance(now + TICK));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void timerFiresInTheAdvanceThatReachesItsDeadline() {
+        ColdTimingWheel wheel = new ColdTimingWheel(TICK, 512);
+        long now = System.currentTimeMillis();
+        wheel.schedule("n", now + 3 * TICK / 2);
+
+        // 每次只推进半格，到期的那次就要拿出来
+        long at = now;
+        while (at < now + 3 * TICK / 2) {
+            assertEquals(List.of(), wheel.advance(at));
+            at += TICK / 2;
+        }
+        assertEquals(List.of("n"), wheel.advance(at));
+    }
+
+    @Test
+    void timerBeyondOneLapWaitsForItsLap() {
+        ColdTimingWheel wheel = new ColdTimingWheel(TICK, 8);
+        long now = System.currentTimeMillis();
+        wheel.schedule("n", now + 10 * TICK);
+
+        for (long at = now; at < now + 10 * TICK; at += TICK / 2) {
+            assertEquals(List.of(), wheel.advance(at));
+        }
+        assertEquals(List.of("n"), wheel.advance(now + 10 * TICK));
+    }
+
+    @Test
+    void rescheduledAndCancelledTimersDoNotFire() {
+        ColdTimingWheel wheel = new ColdTimingWheel(TICK, 512);
+        long now = System.currentTimeMillis();
+        wheel.schedule("moved", now + TICK);
+        wheel.schedule("moved", now + 5 * TICK);
+        wheel.schedule("cancelled", now + TICK);
+        wheel.cancel("cancelled");
+
+        assertEquals(List.of(), wheel.advance(now + 2 * TICK));
+        assertEquals(List.of("moved"), wheel.advance(now + 5 * TICK));
+    }
+}